@@ -4,6 +4,7 @@ public class GitRegistryConfig {
   public String path;
   public String remote;
   public String privateKey;
+  public String mode;
 
   public GitRegistryConfig() {}
 
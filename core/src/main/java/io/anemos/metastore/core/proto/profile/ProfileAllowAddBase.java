@@ -1,5 +1,6 @@
 package io.anemos.metastore.core.proto.profile;
 
+import com.google.protobuf.Descriptors;
 import io.anemos.metastore.v1alpha1.*;
 import java.util.regex.Pattern;
 
@@ -23,6 +24,24 @@ public abstract class ProfileAllowAddBase implements ValidationProfile {
     return skipValidationForAlpha == true && alphaPattern.matcher(packageName).matches();
   }
 
+  @Override
+  public boolean isError(Descriptors.GenericDescriptor descriptor, ChangeType changeType) {
+    if (skipValidationForAlpha(descriptor.getFile().getPackage())) {
+      return false;
+    }
+    if (descriptor instanceof Descriptors.Descriptor
+        || descriptor instanceof Descriptors.EnumDescriptor) {
+      return changeType == ChangeType.REMOVAL;
+    }
+    if (descriptor instanceof Descriptors.FieldDescriptor
+        || descriptor instanceof Descriptors.EnumValueDescriptor) {
+      return changeType == ChangeType.REMOVAL
+          || changeType == ChangeType.RESERVED
+          || changeType == ChangeType.CHANGED;
+    }
+    return false;
+  }
+
   @Override
   public Report validate(Report report) {
     ResultCount.Builder resultCountBuilder = ResultCount.newBuilder();
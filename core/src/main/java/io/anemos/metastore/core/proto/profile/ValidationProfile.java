@@ -1,8 +1,18 @@
 package io.anemos.metastore.core.proto.profile;
 
+import com.google.protobuf.Descriptors;
+import io.anemos.metastore.v1alpha1.ChangeType;
 import io.anemos.metastore.v1alpha1.Report;
 
 public interface ValidationProfile {
 
   Report validate(Report report);
+
+  /**
+   * Whether validate counts the change of the descriptor as a diff error, for callers that count
+   * the results without building a Report.
+   */
+  default boolean isError(Descriptors.GenericDescriptor descriptor, ChangeType changeType) {
+    return false;
+  }
 }
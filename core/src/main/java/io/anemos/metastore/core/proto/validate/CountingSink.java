@@ -0,0 +1,177 @@
+package io.anemos.metastore.core.proto.validate;
+
+import com.google.protobuf.Descriptors;
+import io.anemos.metastore.core.proto.profile.ProfileAllowAll;
+import io.anemos.metastore.core.proto.profile.ValidationProfile;
+import io.anemos.metastore.v1alpha1.ChangeInfo;
+import io.anemos.metastore.v1alpha1.ChangeType;
+import io.anemos.metastore.v1alpha1.EnumValueChangeInfo;
+import io.anemos.metastore.v1alpha1.FieldChangeInfo;
+import io.anemos.metastore.v1alpha1.ImportChangeInfo;
+import io.anemos.metastore.v1alpha1.MethodChangeInfo;
+import io.anemos.metastore.v1alpha1.OptionChangeInfo;
+import io.anemos.metastore.v1alpha1.ResultCount;
+import io.anemos.metastore.v1alpha1.RuleInfo;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts the results without keeping them, for callers that only need to know how much changed.
+ * Changes are counted by change type, lint results by rule code and diff errors as the validation
+ * profile decides them.
+ */
+public class CountingSink implements ResultSink {
+  private final ValidationProfile profile;
+  private final Map<ChangeType, Integer> changes = new EnumMap<>(ChangeType.class);
+  private final Map<String, Integer> lintCodes = new HashMap<>();
+  // A removed or added file is patched twice, like ValidationResults it counts once.
+  private final Set<String> patchedFiles = new HashSet<>();
+  // Descriptors of which the last patch is an error, a later patch replaces it in a Report too.
+  private final Set<String> errors = new HashSet<>();
+  private int lint;
+  private int optionChanges;
+  private int importChanges;
+
+  /** Counts without diff errors, like the allow:all profile. */
+  public CountingSink() {
+    this(new ProfileAllowAll());
+  }
+
+  public CountingSink(ValidationProfile profile) {
+    this.profile = profile;
+  }
+
+  private void lint(RuleInfo ruleInfo) {
+    lint++;
+    lintCodes.merge(ruleInfo.getCode(), 1, Integer::sum);
+  }
+
+  private void change(Descriptors.GenericDescriptor descriptor, ChangeType changeType) {
+    changes.merge(changeType, 1, Integer::sum);
+    if (profile.isError(descriptor, changeType)) {
+      errors.add(descriptor.getFullName());
+    } else {
+      errors.remove(descriptor.getFullName());
+    }
+  }
+
+  /** Number of lint rule violations. */
+  public int getLintCount() {
+    return lint;
+  }
+
+  /** Number of violations of the lint rule with the code. */
+  public int getLintCount(String code) {
+    return lintCodes.getOrDefault(code, 0);
+  }
+
+  /** Number of changes the validation profile doesn't allow. */
+  public int getDiffErrorCount() {
+    return errors.size();
+  }
+
+  /** Number of files, types, fields, values and methods with the change type. */
+  public int getChangeCount(ChangeType changeType) {
+    return changes.getOrDefault(changeType, 0);
+  }
+
+  public int getOptionChangeCount() {
+    return optionChanges;
+  }
+
+  public int getImportChangeCount() {
+    return importChanges;
+  }
+
+  /** Number of diff results: changes, option changes and import changes. */
+  public int getDiffCount() {
+    int count = optionChanges + importChanges;
+    for (int changeCount : changes.values()) {
+      count += changeCount;
+    }
+    return count;
+  }
+
+  /**
+   * Counts as the ResultCount the validation profile sets on a Report, without the ErrorInfo of
+   * every error.
+   */
+  public ResultCount toResultCount() {
+    return ResultCount.newBuilder().setDiffErrors(getDiffErrorCount()).build();
+  }
+
+  @Override
+  public void addResult(Descriptors.FieldDescriptor fd, RuleInfo ruleInfo) {
+    lint(ruleInfo);
+  }
+
+  @Override
+  public void addResult(Descriptors.MethodDescriptor md, RuleInfo ruleInfo) {
+    lint(ruleInfo);
+  }
+
+  @Override
+  public void addResult(Descriptors.Descriptor descriptor, RuleInfo ruleInfo) {
+    lint(ruleInfo);
+  }
+
+  @Override
+  public void addResult(Descriptors.ServiceDescriptor descriptor, RuleInfo ruleInfo) {
+    lint(ruleInfo);
+  }
+
+  @Override
+  public void addResult(Descriptors.FileDescriptor descriptor, RuleInfo ruleInfo) {
+    lint(ruleInfo);
+  }
+
+  @Override
+  public void setPatch(Descriptors.FieldDescriptor fd, FieldChangeInfo patch) {
+    change(fd, patch.getChangeType());
+  }
+
+  @Override
+  public void setPatch(Descriptors.MethodDescriptor fd, MethodChangeInfo patch) {
+    change(fd, patch.getChangeType());
+  }
+
+  @Override
+  public void setPatch(Descriptors.EnumValueDescriptor fd, EnumValueChangeInfo patch) {
+    change(fd, patch.getChangeType());
+  }
+
+  @Override
+  public void setPatch(Descriptors.Descriptor fd, ChangeInfo patch) {
+    change(fd, patch.getChangeType());
+  }
+
+  @Override
+  public void setPatch(Descriptors.FileDescriptor fd, ChangeInfo patch) {
+    if (patchedFiles.add(fd.getFullName())) {
+      change(fd, patch.getChangeType());
+    }
+  }
+
+  @Override
+  public void setPatch(Descriptors.EnumDescriptor fd, ChangeInfo patch) {
+    change(fd, patch.getChangeType());
+  }
+
+  @Override
+  public void setPatch(Descriptors.ServiceDescriptor fd, ChangeInfo patch) {
+    change(fd, patch.getChangeType());
+  }
+
+  @Override
+  public void addOptionChange(Descriptors.GenericDescriptor descriptor, OptionChangeInfo info) {
+    optionChanges++;
+  }
+
+  @Override
+  public void addImportChange(String fullName, ImportChangeInfo info) {
+    importChanges++;
+  }
+}
@@ -1,5 +1,6 @@
 package io.anemos.metastore.core.proto.validate;
 
+import com.google.common.hash.HashCode;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.DescriptorProtos;
@@ -24,6 +25,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -34,17 +36,29 @@ import javax.annotation.Nullable;
  * file/added/removed/keep the same Message content (fields) -> can keep the same/added/removed
  */
 public class ProtoDiff {
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 64;
+  private static volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
 
   private ProtoDomain proto_ref;
   private ProtoDomain proto_new;
-  private ValidationResults results;
+  private ResultSink results;
+  // Files known to be the same, with the same imports, in both domains.
+  private final Map<String, Boolean> unchangedFiles = new HashMap<>();
 
-  public ProtoDiff(ProtoDomain fd_ref, ProtoDomain fd_new, ValidationResults results) {
+  public ProtoDiff(ProtoDomain fd_ref, ProtoDomain fd_new, ResultSink results) {
     this.proto_ref = fd_ref;
     this.proto_new = fd_new;
     this.results = results;
   }
 
+  /**
+   * Sets the number of files from which package diffs run in parallel, on the common
+   * ForkJoinPool. Integer.MAX_VALUE disables the parallel diff.
+   */
+  public static void setParallelThreshold(int threshold) {
+    parallelThreshold = threshold;
+  }
+
   private static Map<String, Descriptors.FileDescriptor> toMap4FileDescriptor(
       Collection<Descriptors.FileDescriptor> in) {
     Map<String, Descriptors.FileDescriptor> out = new HashMap<>();
@@ -89,7 +103,7 @@ public class ProtoDiff {
     Descriptors.FileDescriptor fdRef = proto_ref.getFileDescriptorByFileName(fileName);
     Descriptors.FileDescriptor fdNew = proto_new.getFileDescriptorByFileName(fileName);
 
-    if (fdRef != null && fdNew != null) {
+    if (fdRef != null && fdNew != null && !unchanged(fdRef, fdNew)) {
       diffFileDescriptor(fdRef, fdNew);
       diffOptionsFromFile(fdRef, fdNew);
     }
@@ -167,6 +181,62 @@ public class ProtoDiff {
     diffFiles(fdRef, fdNew);
   }
 
+  /**
+   * Whether two files are the same and import the same files, so their diff is empty. Files built
+   * from the same content share their FileDescriptor, so in the common case this is an identity
+   * check, otherwise the digests of the file and its imports are compared.
+   */
+  private boolean unchanged(Descriptors.FileDescriptor fdRef, Descriptors.FileDescriptor fdNew) {
+    if (fdRef == fdNew) {
+      return true;
+    }
+    if (!fdRef.getName().equals(fdNew.getName())) {
+      return false;
+    }
+    Boolean unchanged = unchangedFiles.get(fdRef.getName());
+    if (unchanged == null) {
+      HashCode digestRef = proto_ref.getFileDigest(fdRef.getName());
+      HashCode digestNew = proto_new.getFileDigest(fdNew.getName());
+      if (digestRef != null && digestNew != null) {
+        unchanged = digestRef.equals(digestNew);
+      } else {
+        unchanged = fdRef.toProto().equals(fdNew.toProto());
+      }
+      unchanged = unchanged && sameImports(fdRef, fdNew);
+      unchangedFiles.put(fdRef.getName(), unchanged);
+    }
+    return unchanged;
+  }
+
+  private boolean sameImports(Descriptors.FileDescriptor fdRef, Descriptors.FileDescriptor fdNew) {
+    List<Descriptors.FileDescriptor> dependenciesRef = fdRef.getDependencies();
+    List<Descriptors.FileDescriptor> dependenciesNew = fdNew.getDependencies();
+    if (dependenciesRef.size() != dependenciesNew.size()) {
+      return false;
+    }
+    for (int i = 0; i < dependenciesRef.size(); i++) {
+      if (!unchanged(dependenciesRef.get(i), dependenciesNew.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether a message, enum or service has the same definition in both domains. Options are
+   * resolved against the extensions of the file and its imports, those have to match too.
+   */
+  private boolean unchanged(
+      Descriptors.GenericDescriptor descriptorRef, Descriptors.GenericDescriptor descriptorNew) {
+    if (!descriptorRef.toProto().equals(descriptorNew.toProto())) {
+      return false;
+    }
+    Descriptors.FileDescriptor fileRef = descriptorRef.getFile();
+    Descriptors.FileDescriptor fileNew = descriptorNew.getFile();
+    return fileRef.toProto().getExtensionList().equals(fileNew.toProto().getExtensionList())
+        && sameImports(fileRef, fileNew);
+  }
+
   private <T extends Descriptors.GenericDescriptor> Map<String, T> toMap4Descriptor(List<T> in) {
     Map<String, T> out = new HashMap<>();
     in.forEach(
@@ -264,38 +334,60 @@ public class ProtoDiff {
     Map<String, Descriptors.FileDescriptor> m_ref = toMap4FileDescriptor(f_ref);
     Map<String, Descriptors.FileDescriptor> m_new = toMap4FileDescriptor(f_new);
 
+    // Pairs of ref and new file, in the order their results are added.
+    List<Descriptors.FileDescriptor[]> pairs = new ArrayList<>();
     Set<String> onlyRef = onlyInLeft(m_ref, m_new);
-    onlyRef.forEach(
-        k -> {
-          Descriptors.FileDescriptor fd = m_ref.get(k);
-          results.setPatch(
-              fd,
-              ChangeInfo.newBuilder()
-                  .setChangeType(ChangeType.REMOVAL)
-                  .setFromName(fd.getName())
-                  .build());
-          diffFileDescriptor(fd, null);
-        });
-
+    onlyRef.forEach(k -> pairs.add(new Descriptors.FileDescriptor[] {m_ref.get(k), null}));
     Set<String> onlyNew = onlyInLeft(m_new, m_ref);
-    onlyNew.forEach(
-        k -> {
-          Descriptors.FileDescriptor fd = m_new.get(k);
-          results.setPatch(
-              fd,
-              ChangeInfo.newBuilder()
-                  .setChangeType(ChangeType.ADDITION)
-                  .setToName(fd.getName())
-                  .build());
-          diffFileDescriptor(null, fd);
-        });
-
+    onlyNew.forEach(k -> pairs.add(new Descriptors.FileDescriptor[] {null, m_new.get(k)}));
     Set<String> common = onlyInCommon(m_new, m_ref);
-    common.forEach(k -> diffFileDescriptor(m_ref.get(k), m_new.get(k)));
+    common.forEach(k -> pairs.add(new Descriptors.FileDescriptor[] {m_ref.get(k), m_new.get(k)}));
+
+    if (pairs.size() < parallelThreshold || ForkJoinPool.getCommonPoolParallelism() < 2) {
+      pairs.forEach(pair -> diffFile(pair[0], pair[1]));
+      return;
+    }
+    // Files are diffed independently, every file records its results in its own buffer. The
+    // buffers are replayed in the sequential order, so the results are the same.
+    List<ResultBuffer> buffers =
+        pairs.parallelStream()
+            .map(
+                pair -> {
+                  ResultBuffer buffer = new ResultBuffer();
+                  new ProtoDiff(proto_ref, proto_new, buffer).diffFile(pair[0], pair[1]);
+                  return buffer;
+                })
+            .collect(Collectors.toList());
+    buffers.forEach(buffer -> buffer.replay(results));
+  }
+
+  private void diffFile(
+      @Nullable Descriptors.FileDescriptor fdRef, @Nullable Descriptors.FileDescriptor fdNew) {
+    if (fdNew == null) {
+      results.setPatch(
+          fdRef,
+          ChangeInfo.newBuilder()
+              .setChangeType(ChangeType.REMOVAL)
+              .setFromName(fdRef.getName())
+              .build());
+    } else if (fdRef == null) {
+      results.setPatch(
+          fdNew,
+          ChangeInfo.newBuilder()
+              .setChangeType(ChangeType.ADDITION)
+              .setToName(fdNew.getName())
+              .build());
+    } else if (unchanged(fdRef, fdNew)) {
+      return;
+    }
+    diffFileDescriptor(fdRef, fdNew);
   }
 
   private void diffMessageType(
       Descriptors.Descriptor descriptorRef, Descriptors.Descriptor descriptorNew) {
+    if (unchanged(descriptorRef, descriptorNew)) {
+      return;
+    }
     DescriptorProtos.MessageOptions optionsRef = descriptorRef.getOptions();
     DescriptorProtos.MessageOptions optionsNew = descriptorNew.getOptions();
     diffExtensionOptions(
@@ -416,6 +508,9 @@ public class ProtoDiff {
 
   private void diffServiceDescriptor(
       Descriptors.ServiceDescriptor descriptorRef, Descriptors.ServiceDescriptor descriptorNew) {
+    if (unchanged(descriptorRef, descriptorNew)) {
+      return;
+    }
     DescriptorProtos.ServiceOptions optionsRef = descriptorRef.getOptions();
     DescriptorProtos.ServiceOptions optionsNew = descriptorNew.getOptions();
     diffExtensionOptions(
@@ -533,6 +628,9 @@ public class ProtoDiff {
 
   private void diffEnumDescriptor(
       Descriptors.EnumDescriptor descriptorRef, Descriptors.EnumDescriptor descriptorNew) {
+    if (unchanged(descriptorRef, descriptorNew)) {
+      return;
+    }
     DescriptorProtos.EnumOptions optionsRef = descriptorRef.getOptions();
     DescriptorProtos.EnumOptions optionsNew = descriptorNew.getOptions();
     diffExtensionOptions(
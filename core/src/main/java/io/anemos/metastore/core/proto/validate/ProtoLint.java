@@ -10,9 +10,9 @@ import java.util.List;
 public class ProtoLint {
 
   private ProtoDomain proto;
-  private ValidationResults results;
+  private ResultSink results;
 
-  public ProtoLint(ProtoDomain fd_ref, ValidationResults results) {
+  public ProtoLint(ProtoDomain fd_ref, ResultSink results) {
     this.proto = fd_ref;
     this.results = results;
   }
@@ -0,0 +1,185 @@
+package io.anemos.metastore.core.proto.validate;
+
+import com.google.protobuf.Descriptors;
+import io.anemos.metastore.v1alpha1.ChangeInfo;
+import io.anemos.metastore.v1alpha1.EnumResult;
+import io.anemos.metastore.v1alpha1.EnumValueChangeInfo;
+import io.anemos.metastore.v1alpha1.EnumValueResult;
+import io.anemos.metastore.v1alpha1.FieldChangeInfo;
+import io.anemos.metastore.v1alpha1.FieldResult;
+import io.anemos.metastore.v1alpha1.FileResult;
+import io.anemos.metastore.v1alpha1.ImportChangeInfo;
+import io.anemos.metastore.v1alpha1.MessageResult;
+import io.anemos.metastore.v1alpha1.MethodChangeInfo;
+import io.anemos.metastore.v1alpha1.MethodResult;
+import io.anemos.metastore.v1alpha1.OptionChangeInfo;
+import io.anemos.metastore.v1alpha1.Report;
+import io.anemos.metastore.v1alpha1.RuleInfo;
+import io.anemos.metastore.v1alpha1.ServiceResult;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the Report directly, every result is added to the builder of its file, message, service
+ * or enum as it is found. Unlike {@link ValidationResults} nothing is collected in between, so the
+ * results are held once. Fields, methods and values are in the order they were first reported.
+ */
+public class ReportSink implements ResultSink {
+  private final Map<String, FileResult.Builder> files = new LinkedHashMap<>();
+  private final Map<String, MessageResult.Builder> messages = new LinkedHashMap<>();
+  private final Map<String, ServiceResult.Builder> services = new LinkedHashMap<>();
+  private final Map<String, EnumResult.Builder> enums = new LinkedHashMap<>();
+  // Nested builders, by the full name of their parent and their own name.
+  private final Map<String, FieldResult.Builder> fields = new HashMap<>();
+  private final Map<String, MethodResult.Builder> methods = new HashMap<>();
+  private final Map<String, EnumValueResult.Builder> values = new HashMap<>();
+
+  private static String key(Descriptors.GenericDescriptor parent, String name) {
+    return parent.getFullName() + "/" + name;
+  }
+
+  private FileResult.Builder file(String fileName) {
+    return files.computeIfAbsent(fileName, k -> FileResult.newBuilder().setFileName(fileName));
+  }
+
+  private MessageResult.Builder message(Descriptors.Descriptor descriptor) {
+    return messages.computeIfAbsent(
+        descriptor.getFullName(),
+        k ->
+            MessageResult.newBuilder()
+                .setName(descriptor.getFullName())
+                .setPackage(descriptor.getFile().getPackage()));
+  }
+
+  private FieldResult.Builder field(Descriptors.FieldDescriptor fd) {
+    return fields.computeIfAbsent(
+        key(fd.getContainingType(), fd.getName()),
+        k ->
+            message(fd.getContainingType())
+                .addFieldResultsBuilder()
+                .setName(fd.getName())
+                .setNumber(fd.getNumber()));
+  }
+
+  private ServiceResult.Builder service(Descriptors.ServiceDescriptor descriptor) {
+    return services.computeIfAbsent(
+        descriptor.getFullName(),
+        k ->
+            ServiceResult.newBuilder()
+                .setName(descriptor.getFullName())
+                .setPackage(descriptor.getFile().getPackage()));
+  }
+
+  private MethodResult.Builder method(Descriptors.MethodDescriptor md) {
+    return methods.computeIfAbsent(
+        key(md.getService(), md.getName()),
+        k -> service(md.getService()).addMethodResultsBuilder().setName(md.getName()));
+  }
+
+  private EnumResult.Builder enumType(Descriptors.EnumDescriptor descriptor) {
+    return enums.computeIfAbsent(
+        descriptor.getFullName(),
+        k ->
+            EnumResult.newBuilder()
+                .setName(descriptor.getFullName())
+                .setPackage(descriptor.getFile().getPackage()));
+  }
+
+  private EnumValueResult.Builder value(Descriptors.EnumValueDescriptor vd) {
+    return values.computeIfAbsent(
+        key(vd.getType(), vd.getName()),
+        k ->
+            enumType(vd.getType())
+                .addValueResultsBuilder()
+                .setName(vd.getName())
+                .setNumber(vd.getNumber()));
+  }
+
+  @Override
+  public void addResult(Descriptors.FieldDescriptor fd, RuleInfo ruleInfo) {
+    field(fd).addInfo(ruleInfo);
+  }
+
+  @Override
+  public void addResult(Descriptors.MethodDescriptor md, RuleInfo ruleInfo) {
+    method(md).addInfo(ruleInfo);
+  }
+
+  @Override
+  public void addResult(Descriptors.Descriptor descriptor, RuleInfo ruleInfo) {
+    message(descriptor).addInfo(ruleInfo);
+  }
+
+  @Override
+  public void addResult(Descriptors.ServiceDescriptor descriptor, RuleInfo ruleInfo) {
+    service(descriptor).addInfo(ruleInfo);
+  }
+
+  @Override
+  public void addResult(Descriptors.FileDescriptor descriptor, RuleInfo ruleInfo) {
+    file(descriptor.getFullName()).addInfo(ruleInfo);
+  }
+
+  @Override
+  public void setPatch(Descriptors.FieldDescriptor fd, FieldChangeInfo patch) {
+    field(fd).setChange(patch);
+  }
+
+  @Override
+  public void setPatch(Descriptors.MethodDescriptor fd, MethodChangeInfo patch) {
+    method(fd).setChange(patch);
+  }
+
+  @Override
+  public void setPatch(Descriptors.EnumValueDescriptor fd, EnumValueChangeInfo patch) {
+    value(fd).setChange(patch);
+  }
+
+  @Override
+  public void setPatch(Descriptors.Descriptor fd, ChangeInfo patch) {
+    message(fd).setChange(patch);
+  }
+
+  @Override
+  public void setPatch(Descriptors.FileDescriptor fd, ChangeInfo patch) {
+    file(fd.getFullName()).setChange(patch);
+  }
+
+  @Override
+  public void setPatch(Descriptors.EnumDescriptor fd, ChangeInfo patch) {
+    enumType(fd).setChange(patch);
+  }
+
+  @Override
+  public void setPatch(Descriptors.ServiceDescriptor fd, ChangeInfo patch) {
+    service(fd).setChange(patch);
+  }
+
+  @Override
+  public void addOptionChange(Descriptors.GenericDescriptor descriptor, OptionChangeInfo info) {
+    if (descriptor instanceof Descriptors.FileDescriptor) {
+      file(descriptor.getFullName()).addOptionChange(info);
+    } else if (descriptor instanceof Descriptors.Descriptor) {
+      message((Descriptors.Descriptor) descriptor).addOptionChange(info);
+    } else if (descriptor instanceof Descriptors.FieldDescriptor) {
+      field((Descriptors.FieldDescriptor) descriptor).addOptionChange(info);
+    } else {
+      throw new RuntimeException("Unimplemented option");
+    }
+  }
+
+  @Override
+  public void addImportChange(String fullName, ImportChangeInfo info) {
+    file(fullName).addImportChange(info);
+  }
+
+  public Report createProto() {
+    Report.Builder builder = Report.newBuilder();
+    files.forEach((fileName, file) -> builder.putFileResults(fileName, file.build()));
+    messages.forEach((name, message) -> builder.putMessageResults(name, message.build()));
+    services.forEach((name, service) -> builder.putServiceResults(name, service.build()));
+    enums.forEach((name, e) -> builder.putEnumResults(name, e.build()));
+    return builder.build();
+  }
+}
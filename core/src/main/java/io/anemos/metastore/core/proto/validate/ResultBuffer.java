@@ -0,0 +1,97 @@
+package io.anemos.metastore.core.proto.validate;
+
+import com.google.protobuf.Descriptors;
+import io.anemos.metastore.v1alpha1.ChangeInfo;
+import io.anemos.metastore.v1alpha1.EnumValueChangeInfo;
+import io.anemos.metastore.v1alpha1.FieldChangeInfo;
+import io.anemos.metastore.v1alpha1.ImportChangeInfo;
+import io.anemos.metastore.v1alpha1.MethodChangeInfo;
+import io.anemos.metastore.v1alpha1.OptionChangeInfo;
+import io.anemos.metastore.v1alpha1.RuleInfo;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Records the results of a diff task instead of applying them, so tasks can run concurrently and
+ * their results are replayed into the shared sink in the order a sequential diff would have added
+ * them.
+ */
+class ResultBuffer implements ResultSink {
+  private final List<Consumer<ResultSink>> operations = new ArrayList<>();
+
+  /** Applies the recorded results to the target, in the order they were recorded. */
+  void replay(ResultSink target) {
+    operations.forEach(operation -> operation.accept(target));
+  }
+
+  @Override
+  public void addResult(Descriptors.FieldDescriptor fd, RuleInfo ruleInfo) {
+    operations.add(target -> target.addResult(fd, ruleInfo));
+  }
+
+  @Override
+  public void addResult(Descriptors.MethodDescriptor md, RuleInfo ruleInfo) {
+    operations.add(target -> target.addResult(md, ruleInfo));
+  }
+
+  @Override
+  public void addResult(Descriptors.Descriptor descriptor, RuleInfo ruleInfo) {
+    operations.add(target -> target.addResult(descriptor, ruleInfo));
+  }
+
+  @Override
+  public void addResult(Descriptors.ServiceDescriptor descriptor, RuleInfo ruleInfo) {
+    operations.add(target -> target.addResult(descriptor, ruleInfo));
+  }
+
+  @Override
+  public void addResult(Descriptors.FileDescriptor descriptor, RuleInfo ruleInfo) {
+    operations.add(target -> target.addResult(descriptor, ruleInfo));
+  }
+
+  @Override
+  public void setPatch(Descriptors.FieldDescriptor fd, FieldChangeInfo patch) {
+    operations.add(target -> target.setPatch(fd, patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.MethodDescriptor fd, MethodChangeInfo patch) {
+    operations.add(target -> target.setPatch(fd, patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.EnumValueDescriptor fd, EnumValueChangeInfo patch) {
+    operations.add(target -> target.setPatch(fd, patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.Descriptor fd, ChangeInfo patch) {
+    operations.add(target -> target.setPatch(fd, patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.FileDescriptor fd, ChangeInfo patch) {
+    operations.add(target -> target.setPatch(fd, patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.EnumDescriptor fd, ChangeInfo patch) {
+    operations.add(target -> target.setPatch(fd, patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.ServiceDescriptor fd, ChangeInfo patch) {
+    operations.add(target -> target.setPatch(fd, patch));
+  }
+
+  @Override
+  public void addOptionChange(Descriptors.GenericDescriptor descriptor, OptionChangeInfo info) {
+    operations.add(target -> target.addOptionChange(descriptor, info));
+  }
+
+  @Override
+  public void addImportChange(String fullName, ImportChangeInfo info) {
+    operations.add(target -> target.addImportChange(fullName, info));
+  }
+}
@@ -0,0 +1,48 @@
+package io.anemos.metastore.core.proto.validate;
+
+import com.google.protobuf.Descriptors;
+import io.anemos.metastore.v1alpha1.ChangeInfo;
+import io.anemos.metastore.v1alpha1.EnumValueChangeInfo;
+import io.anemos.metastore.v1alpha1.FieldChangeInfo;
+import io.anemos.metastore.v1alpha1.ImportChangeInfo;
+import io.anemos.metastore.v1alpha1.MethodChangeInfo;
+import io.anemos.metastore.v1alpha1.OptionChangeInfo;
+import io.anemos.metastore.v1alpha1.RuleInfo;
+
+/**
+ * Receives the results of {@link ProtoDiff} and {@link ProtoLint} as they are found. {@link
+ * ReportSink} builds a Report from them, {@link ValidationResults} collects them for lookups,
+ * {@link CountingSink} only counts them and {@link StreamingSink} hands every result on as soon as
+ * it is found.
+ */
+public interface ResultSink {
+
+  void addResult(Descriptors.FieldDescriptor fd, RuleInfo ruleInfo);
+
+  void addResult(Descriptors.MethodDescriptor md, RuleInfo ruleInfo);
+
+  void addResult(Descriptors.Descriptor descriptor, RuleInfo ruleInfo);
+
+  void addResult(Descriptors.ServiceDescriptor descriptor, RuleInfo ruleInfo);
+
+  void addResult(Descriptors.FileDescriptor descriptor, RuleInfo ruleInfo);
+
+  void setPatch(Descriptors.FieldDescriptor fd, FieldChangeInfo patch);
+
+  void setPatch(Descriptors.MethodDescriptor fd, MethodChangeInfo patch);
+
+  void setPatch(Descriptors.EnumValueDescriptor fd, EnumValueChangeInfo patch);
+
+  void setPatch(Descriptors.Descriptor fd, ChangeInfo patch);
+
+  void setPatch(Descriptors.FileDescriptor fd, ChangeInfo patch);
+
+  void setPatch(Descriptors.EnumDescriptor fd, ChangeInfo patch);
+
+  void setPatch(Descriptors.ServiceDescriptor fd, ChangeInfo patch);
+
+  /** Option change of a file, message or field. */
+  void addOptionChange(Descriptors.GenericDescriptor descriptor, OptionChangeInfo info);
+
+  void addImportChange(String fullName, ImportChangeInfo info);
+}
@@ -0,0 +1,166 @@
+package io.anemos.metastore.core.proto.validate;
+
+import com.google.protobuf.Descriptors;
+import io.anemos.metastore.v1alpha1.ChangeInfo;
+import io.anemos.metastore.v1alpha1.EnumResult;
+import io.anemos.metastore.v1alpha1.EnumValueChangeInfo;
+import io.anemos.metastore.v1alpha1.EnumValueResult;
+import io.anemos.metastore.v1alpha1.FieldChangeInfo;
+import io.anemos.metastore.v1alpha1.FieldResult;
+import io.anemos.metastore.v1alpha1.FileResult;
+import io.anemos.metastore.v1alpha1.ImportChangeInfo;
+import io.anemos.metastore.v1alpha1.MessageResult;
+import io.anemos.metastore.v1alpha1.MethodChangeInfo;
+import io.anemos.metastore.v1alpha1.MethodResult;
+import io.anemos.metastore.v1alpha1.OptionChangeInfo;
+import io.anemos.metastore.v1alpha1.Report;
+import io.anemos.metastore.v1alpha1.RuleInfo;
+import io.anemos.metastore.v1alpha1.ServiceResult;
+import java.util.function.Consumer;
+
+/**
+ * Hands every result to a consumer as soon as it is found, nothing is kept. Each result is passed
+ * as a Report holding only that result, for example to send it to a client over a stream. A
+ * descriptor with several results shows up in several Reports.
+ */
+public class StreamingSink implements ResultSink {
+  private final Consumer<Report> consumer;
+
+  public StreamingSink(Consumer<Report> consumer) {
+    this.consumer = consumer;
+  }
+
+  private static MessageResult.Builder message(Descriptors.Descriptor descriptor) {
+    return MessageResult.newBuilder()
+        .setName(descriptor.getFullName())
+        .setPackage(descriptor.getFile().getPackage());
+  }
+
+  private static FieldResult.Builder field(Descriptors.FieldDescriptor fd) {
+    return FieldResult.newBuilder().setName(fd.getName()).setNumber(fd.getNumber());
+  }
+
+  private static ServiceResult.Builder service(Descriptors.ServiceDescriptor descriptor) {
+    return ServiceResult.newBuilder()
+        .setName(descriptor.getFullName())
+        .setPackage(descriptor.getFile().getPackage());
+  }
+
+  private static EnumResult.Builder enumType(Descriptors.EnumDescriptor descriptor) {
+    return EnumResult.newBuilder()
+        .setName(descriptor.getFullName())
+        .setPackage(descriptor.getFile().getPackage());
+  }
+
+  private static FileResult.Builder file(String fileName) {
+    return FileResult.newBuilder().setFileName(fileName);
+  }
+
+  private void emit(MessageResult.Builder result) {
+    consumer.accept(
+        Report.newBuilder().putMessageResults(result.getName(), result.build()).build());
+  }
+
+  private void emit(ServiceResult.Builder result) {
+    consumer.accept(
+        Report.newBuilder().putServiceResults(result.getName(), result.build()).build());
+  }
+
+  private void emit(EnumResult.Builder result) {
+    consumer.accept(Report.newBuilder().putEnumResults(result.getName(), result.build()).build());
+  }
+
+  private void emit(FileResult.Builder result) {
+    consumer.accept(
+        Report.newBuilder().putFileResults(result.getFileName(), result.build()).build());
+  }
+
+  @Override
+  public void addResult(Descriptors.FieldDescriptor fd, RuleInfo ruleInfo) {
+    emit(message(fd.getContainingType()).addFieldResults(field(fd).addInfo(ruleInfo)));
+  }
+
+  @Override
+  public void addResult(Descriptors.MethodDescriptor md, RuleInfo ruleInfo) {
+    emit(
+        service(md.getService())
+            .addMethodResults(MethodResult.newBuilder().setName(md.getName()).addInfo(ruleInfo)));
+  }
+
+  @Override
+  public void addResult(Descriptors.Descriptor descriptor, RuleInfo ruleInfo) {
+    emit(message(descriptor).addInfo(ruleInfo));
+  }
+
+  @Override
+  public void addResult(Descriptors.ServiceDescriptor descriptor, RuleInfo ruleInfo) {
+    emit(service(descriptor).addInfo(ruleInfo));
+  }
+
+  @Override
+  public void addResult(Descriptors.FileDescriptor descriptor, RuleInfo ruleInfo) {
+    emit(file(descriptor.getFullName()).addInfo(ruleInfo));
+  }
+
+  @Override
+  public void setPatch(Descriptors.FieldDescriptor fd, FieldChangeInfo patch) {
+    emit(message(fd.getContainingType()).addFieldResults(field(fd).setChange(patch)));
+  }
+
+  @Override
+  public void setPatch(Descriptors.MethodDescriptor fd, MethodChangeInfo patch) {
+    emit(
+        service(fd.getService())
+            .addMethodResults(MethodResult.newBuilder().setName(fd.getName()).setChange(patch)));
+  }
+
+  @Override
+  public void setPatch(Descriptors.EnumValueDescriptor fd, EnumValueChangeInfo patch) {
+    emit(
+        enumType(fd.getType())
+            .addValueResults(
+                EnumValueResult.newBuilder()
+                    .setName(fd.getName())
+                    .setNumber(fd.getNumber())
+                    .setChange(patch)));
+  }
+
+  @Override
+  public void setPatch(Descriptors.Descriptor fd, ChangeInfo patch) {
+    emit(message(fd).setChange(patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.FileDescriptor fd, ChangeInfo patch) {
+    emit(file(fd.getFullName()).setChange(patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.EnumDescriptor fd, ChangeInfo patch) {
+    emit(enumType(fd).setChange(patch));
+  }
+
+  @Override
+  public void setPatch(Descriptors.ServiceDescriptor fd, ChangeInfo patch) {
+    emit(service(fd).setChange(patch));
+  }
+
+  @Override
+  public void addOptionChange(Descriptors.GenericDescriptor descriptor, OptionChangeInfo info) {
+    if (descriptor instanceof Descriptors.FileDescriptor) {
+      emit(file(descriptor.getFullName()).addOptionChange(info));
+    } else if (descriptor instanceof Descriptors.Descriptor) {
+      emit(message((Descriptors.Descriptor) descriptor).addOptionChange(info));
+    } else if (descriptor instanceof Descriptors.FieldDescriptor) {
+      Descriptors.FieldDescriptor fd = (Descriptors.FieldDescriptor) descriptor;
+      emit(message(fd.getContainingType()).addFieldResults(field(fd).addOptionChange(info)));
+    } else {
+      throw new RuntimeException("Unimplemented option");
+    }
+  }
+
+  @Override
+  public void addImportChange(String fullName, ImportChangeInfo info) {
+    emit(file(fullName).addImportChange(info));
+  }
+}
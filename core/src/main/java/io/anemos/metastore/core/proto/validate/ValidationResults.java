@@ -7,7 +7,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class ValidationResults {
+public class ValidationResults implements ResultSink {
   private Map<String, FileResultContainer> fileMap = new HashMap<>();
   private Map<String, MessageResultContainer> messageMap = new HashMap<>();
   private Map<String, EnumResultContainer> enumMap = new HashMap<>();
@@ -72,67 +72,80 @@ public class ValidationResults {
     return enumResult;
   }
 
-  void addResult(Descriptors.FieldDescriptor fd, RuleInfo ruleInfo) {
+  @Override
+  public void addResult(Descriptors.FieldDescriptor fd, RuleInfo ruleInfo) {
     MessageResultContainer messageResult = getOrCreateMessage(fd.getContainingType());
     messageResult.add(fd, ruleInfo);
   }
 
-  void addResult(Descriptors.MethodDescriptor md, RuleInfo ruleInfo) {
+  @Override
+  public void addResult(Descriptors.MethodDescriptor md, RuleInfo ruleInfo) {
     ServiceResultContainer messageResult = getOrCreateService(md.getService());
     messageResult.add(md, ruleInfo);
   }
 
-  void addResult(Descriptors.Descriptor descriptor, RuleInfo ruleInfo) {
+  @Override
+  public void addResult(Descriptors.Descriptor descriptor, RuleInfo ruleInfo) {
     MessageResultContainer messageResult = getOrCreateMessage(descriptor);
     messageResult.addResult(ruleInfo);
   }
 
-  void addResult(Descriptors.ServiceDescriptor descriptor, RuleInfo ruleInfo) {
+  @Override
+  public void addResult(Descriptors.ServiceDescriptor descriptor, RuleInfo ruleInfo) {
     ServiceResultContainer serviceResult = getOrCreateService(descriptor);
     serviceResult.addResult(ruleInfo);
   }
 
-  void addResult(Descriptors.FileDescriptor descriptor, RuleInfo ruleInfo) {
+  @Override
+  public void addResult(Descriptors.FileDescriptor descriptor, RuleInfo ruleInfo) {
     FileResultContainer fileResult = getOrCreateFile(descriptor.getFullName());
     fileResult.addResult(ruleInfo);
   }
 
-  void setPatch(Descriptors.FieldDescriptor fd, FieldChangeInfo patch) {
+  @Override
+  public void setPatch(Descriptors.FieldDescriptor fd, FieldChangeInfo patch) {
     MessageResultContainer resultContainer = getOrCreateMessage(fd.getContainingType());
     resultContainer.addPatch(fd, patch);
   }
 
-  void setPatch(Descriptors.MethodDescriptor fd, MethodChangeInfo patch) {
+  @Override
+  public void setPatch(Descriptors.MethodDescriptor fd, MethodChangeInfo patch) {
     ServiceResultContainer resultContainer = getOrCreateService(fd.getService());
     resultContainer.addPatch(fd, patch);
   }
 
-  void setPatch(Descriptors.EnumValueDescriptor fd, EnumValueChangeInfo patch) {
+  @Override
+  public void setPatch(Descriptors.EnumValueDescriptor fd, EnumValueChangeInfo patch) {
     EnumResultContainer resultContainer = getOrCreateEnum(fd.getType());
     resultContainer.addPatch(fd, patch);
   }
 
-  void setPatch(Descriptors.Descriptor fd, ChangeInfo patch) {
+  @Override
+  public void setPatch(Descriptors.Descriptor fd, ChangeInfo patch) {
     MessageResultContainer resultContainer = getOrCreateMessage(fd);
     resultContainer.setPatch(patch);
   }
 
-  void setPatch(Descriptors.FileDescriptor fd, ChangeInfo patch) {
+  @Override
+  public void setPatch(Descriptors.FileDescriptor fd, ChangeInfo patch) {
     FileResultContainer resultContainer = getOrCreateFile(fd.getFullName());
     resultContainer.setPatch(patch);
   }
 
-  void setPatch(Descriptors.EnumDescriptor fd, ChangeInfo patch) {
+  @Override
+  public void setPatch(Descriptors.EnumDescriptor fd, ChangeInfo patch) {
     EnumResultContainer resultContainer = getOrCreateEnum(fd);
     resultContainer.setPatch(patch);
   }
 
-  void setPatch(Descriptors.ServiceDescriptor fd, ChangeInfo patch) {
+  @Override
+  public void setPatch(Descriptors.ServiceDescriptor fd, ChangeInfo patch) {
     ServiceResultContainer serviceResult = getOrCreateService(fd);
     serviceResult.setPatch(patch);
   }
 
-  void addOptionChange(Descriptors.GenericDescriptor descriptor, OptionChangeInfo info) {
+  @Override
+  public void addOptionChange(Descriptors.GenericDescriptor descriptor, OptionChangeInfo info) {
     if (descriptor instanceof Descriptors.FileDescriptor) {
       FileResultContainer fileResultContainer = getOrCreateFile(descriptor.getFullName());
       fileResultContainer.addOptionChange(info);
@@ -151,7 +164,8 @@ public class ValidationResults {
     }
   }
 
-  void addImportChange(String fullName, ImportChangeInfo info) {
+  @Override
+  public void addImportChange(String fullName, ImportChangeInfo info) {
     FileResultContainer fileResultContainer = getOrCreateFile(fullName);
     fileResultContainer.addImportChange(info);
   }
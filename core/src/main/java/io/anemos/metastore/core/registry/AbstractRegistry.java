@@ -1,5 +1,8 @@
 package io.anemos.metastore.core.registry;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Descriptors;
 import io.anemos.metastore.config.GitGlobalConfig;
@@ -20,13 +23,23 @@ import io.grpc.StatusException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public abstract class AbstractRegistry implements RegistryInfo {
 
   private static final Logger LOG = LoggerFactory.getLogger(AbstractRegistry.class);
+  private static final int HISTORY_SIZE = 64;
+  private static final int HISTORIC_SNAPSHOTS = 8;
   protected final Registries registries;
   protected final String name;
   private List<BindProvider> bindProviders;
@@ -34,8 +47,25 @@ public abstract class AbstractRegistry implements RegistryInfo {
   MetaStoreConfig config;
   RegistryConfig registryConfig;
   final StorageProvider storageProvider;
-  ProtoDomain protoContainer;
+  private final AtomicReference<RegistrySnapshot> snapshot =
+      new AtomicReference<>(new RegistrySnapshot(ProtoDomain.empty(), 0));
+  private final CommitPipeline commitPipeline;
+  private final List<SnapshotListener> snapshotListeners = new CopyOnWriteArrayList<>();
+  // The files of the most recent versions, oldest first, only kept when the storage provider has
+  // no history. Only the package and digest of every file is kept, not the domain.
+  private final Map<Long, Map<String, FileState>> recentFiles =
+      Collections.synchronizedMap(
+          new LinkedHashMap<Long, Map<String, FileState>>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Map<String, FileState>> eldest) {
+              return size() > HISTORY_SIZE;
+            }
+          });
+  // Earlier versions recently read from the storage provider.
+  private final Cache<Long, RegistrySnapshot> historicSnapshots =
+      CacheBuilder.newBuilder().maximumSize(HISTORIC_SNAPSHOTS).build();
   private MetaGit metaGit;
+  private final GitSyncWorker gitSync;
 
   AbstractRegistry(
       Registries registries,
@@ -47,8 +77,10 @@ public abstract class AbstractRegistry implements RegistryInfo {
     this.config = config;
     this.registryConfig = registryConfig;
     this.metaGit = new MetaGit(registryConfig, global);
+    this.gitSync = new GitSyncWorker(metaGit, name);
     this.bindProviders = new ArrayList<>();
     this.eventingProviders = new ArrayList<>();
+    this.commitPipeline = new CommitPipeline(this);
 
     if (config.storage == null) {
       LOG.warn("Storage Provider not configured, defaulting to in memory provider");
@@ -87,14 +119,152 @@ public abstract class AbstractRegistry implements RegistryInfo {
 
   public abstract ByteString raw();
 
-  public abstract ProtoDomain get();
-
   public abstract ProtoDomain ref();
 
-  public abstract void update(ProtoDomain ref, ProtoDomain in, Report report, Comment comment);
+  /**
+   * Stores the new state of the registry. Only called from the commit pipeline, reports holds the
+   * validation result of every mutation in the committed batch.
+   */
+  abstract void update(ProtoDomain ref, ProtoDomain in, List<Report> reports, Comment comment);
+
+  /**
+   * Queues a mutation on the commit pipeline of this registry. The mutation is applied on the
+   * latest state, when expectedVersion is not 0 the commit is aborted if the registry moved on.
+   */
+  public CompletableFuture<CommitPipeline.Commit> submit(
+      long expectedVersion, Comment comment, CommitPipeline.Mutation mutation) {
+    return commitPipeline.submit(expectedVersion, comment, mutation);
+  }
+
+  /** Runs {@link #update(Comment)} on the commit pipeline and waits for it to complete. */
+  void refresh(Comment comment) {
+    commitPipeline.execute(() -> update(comment)).join();
+  }
+
+  /**
+   * Returns the current state of the registry. The snapshot is immutable, callers should take it
+   * once per request and use it for all reads.
+   */
+  public RegistrySnapshot snapshot() {
+    return snapshot.get();
+  }
+
+  public ProtoDomain get() {
+    return snapshot().getDomain();
+  }
+
+  /**
+   * Atomically replaces the current state of the registry, bumping the version. Publishing is
+   * serialized by the commit pipeline, so the previous snapshot can't change underneath.
+   */
+  RegistrySnapshot publish(ProtoDomain domain) {
+    return publish(domain, snapshot.get().getVersion() + 1);
+  }
+
+  /**
+   * Publishes the domain as the given version, which must be newer than the current one. A failing
+   * listener is logged, it doesn't fail the publish nor keep the other listeners from being called.
+   */
+  RegistrySnapshot publish(ProtoDomain domain, long version) {
+    RegistrySnapshot previous = snapshot.get();
+    if (version <= previous.getVersion()) {
+      throw new IllegalStateException(
+          String.format(
+              "Can't publish version %d, registry is at version %d.",
+              version, previous.getVersion()));
+    }
+    RegistrySnapshot published = new RegistrySnapshot(domain, version);
+    snapshot.set(published);
+    if (!storageProvider.isVersioned()) {
+      recentFiles.put(published.getVersion(), published.getFiles());
+    }
+    for (SnapshotListener listener : snapshotListeners) {
+      try {
+        listener.snapshotPublished(this, published);
+      } catch (RuntimeException e) {
+        LOG.error("Snapshot listener of registry " + name + " failed", e);
+      }
+    }
+    return published;
+  }
+
+  /**
+   * Returns the state of the registry at a given version. Earlier versions are read from the
+   * storage provider when it keeps the history, the last ones read are kept. Without history only
+   * the current version is available.
+   */
+  public RegistrySnapshot snapshotAt(long version) throws StatusException {
+    RegistrySnapshot current = snapshot();
+    if (version == current.getVersion()) {
+      return current;
+    }
+    if (version < current.getVersion() && storageProvider.isVersioned()) {
+      try {
+        return historicSnapshots.get(
+            version,
+            () -> {
+              ByteString buffer = storageProvider.read(version);
+              if (buffer == null) {
+                throw new VersionNotFoundException();
+              }
+              return new RegistrySnapshot(ProtoDomain.buildFrom(buffer), version);
+            });
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        if (!(e.getCause() instanceof VersionNotFoundException)) {
+          throw Status.INTERNAL
+              .withDescription(String.format("Failed to read version %d of %s.", version, name))
+              .withCause(e.getCause())
+              .asException();
+        }
+      }
+    }
+    throw Status.NOT_FOUND
+        .withDescription(String.format("Version %d of %s is not available.", version, name))
+        .asException();
+  }
+
+  /**
+   * Returns the package and digest of the files of the registry at a given version. Without
+   * history they are kept in memory for the most recent versions, with history they are taken from
+   * the version read from the storage provider.
+   */
+  public Map<String, FileState> filesAt(long version) throws StatusException {
+    RegistrySnapshot current = snapshot();
+    if (version == current.getVersion()) {
+      return current.getFiles();
+    }
+    Map<String, FileState> recent = recentFiles.get(version);
+    if (recent != null) {
+      return recent;
+    }
+    return snapshotAt(version).getFiles();
+  }
 
+  public void addSnapshotListener(SnapshotListener listener) {
+    snapshotListeners.add(listener);
+  }
+
+  public void removeSnapshotListener(SnapshotListener listener) {
+    snapshotListeners.remove(listener);
+  }
+
+  public int getSnapshotListenerCount() {
+    return snapshotListeners.size();
+  }
+
+  /** Queues a sync of the current state to the git repo, the sync runs in the background. */
   void syncGitRepo(Comment comment) {
-    metaGit.sync(protoContainer, comment);
+    if (metaGit.isEnabled()) {
+      gitSync.submit(get(), comment);
+    }
+  }
+
+  /**
+   * Waits until the queued git syncs are done, returns false if they are still pending after the
+   * timeout.
+   */
+  public boolean awaitGitSync(long timeout, TimeUnit unit) throws InterruptedException {
+    return gitSync.awaitIdle(timeout, unit);
   }
 
   void initGitRepo() {
@@ -109,10 +279,11 @@ public abstract class AbstractRegistry implements RegistryInfo {
 
     String linkedResource = validateLinkedResource(resourceBinding.getLinkedResource());
 
+    ProtoDomain domain = get();
     if (resourceBinding.getTypeCase().getNumber()
         == RegistryP.ResourceBinding.MESSAGE_NAME_FIELD_NUMBER) {
       Descriptors.Descriptor descriptor =
-          protoContainer.getDescriptorByName(resourceBinding.getMessageName());
+          domain.getDescriptorByName(resourceBinding.getMessageName());
       if (descriptor == null) {
         throw Status.NOT_FOUND
             .withDescription("The descriptor with message_name is not found in the registry.")
@@ -128,7 +299,7 @@ public abstract class AbstractRegistry implements RegistryInfo {
           });
     } else if (resourceBinding.getServiceName() != null) {
       Descriptors.ServiceDescriptor descriptor =
-          protoContainer.getServiceDescriptorByName(resourceBinding.getServiceName());
+          domain.getServiceDescriptorByName(resourceBinding.getServiceName());
       if (descriptor == null) {
         throw Status.NOT_FOUND
             .withDescription("The descriptor with service_name is not found in the registry.")
@@ -242,4 +413,6 @@ public abstract class AbstractRegistry implements RegistryInfo {
             .asException();
     }
   }
+
+  private static class VersionNotFoundException extends Exception {}
 }
@@ -0,0 +1,170 @@
+package io.anemos.metastore.core.registry;
+
+import io.anemos.metastore.putils.ProtoDomain;
+import io.anemos.metastore.v1alpha1.RegistryP.SubmitSchemaRequest.Comment;
+import io.anemos.metastore.v1alpha1.Report;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serializes all writes of a registry on a single committer thread. Every mutation is validated
+ * against the exact state it is committed on. Mutations that queue up while a commit is running are
+ * applied one after the other and stored as a single batch, so they share one storage write and one
+ * git sync.
+ */
+public class CommitPipeline {
+  private static final Logger LOG = LoggerFactory.getLogger(CommitPipeline.class);
+  private static final int MAX_BATCH_SIZE = 64;
+
+  private final AbstractRegistry registry;
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final ExecutorService committer;
+
+  CommitPipeline(AbstractRegistry registry) {
+    this.registry = registry;
+    this.committer =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "commit-" + registry.getName());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Queues a mutation for the registry. The returned future completes when the mutation is
+   * committed, or exceptionally when the mutation is rejected or the commit failed.
+   *
+   * @param expectedVersion version the registry should be at, or 0 to skip the check
+   */
+  CompletableFuture<Commit> submit(long expectedVersion, Comment comment, Mutation mutation) {
+    Pending pending = new Pending(expectedVersion, comment, mutation);
+    queue.add(pending);
+    committer.execute(this::drain);
+    return pending.future;
+  }
+
+  /** Runs a task on the committer thread, ordered with the queued mutations. */
+  CompletableFuture<Void> execute(Runnable task) {
+    return CompletableFuture.runAsync(task, committer);
+  }
+
+  private void drain() {
+    List<Pending> batch = new ArrayList<>();
+    queue.drainTo(batch, MAX_BATCH_SIZE);
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    RegistrySnapshot base = registry.snapshot();
+    ProtoDomain domain = base.getDomain();
+    List<Pending> accepted = new ArrayList<>();
+    List<Commit> commits = new ArrayList<>();
+    for (Pending pending : batch) {
+      long current = accepted.isEmpty() ? base.getVersion() : base.getVersion() + 1;
+      if (pending.expectedVersion != 0 && pending.expectedVersion != current) {
+        pending.future.completeExceptionally(
+            Status.ABORTED
+                .withDescription(
+                    String.format(
+                        "Registry is at version %d, expected version %d.",
+                        current, pending.expectedVersion))
+                .asException());
+        continue;
+      }
+      try {
+        Commit commit = pending.mutation.apply(domain);
+        domain = commit.getDomain();
+        accepted.add(pending);
+        commits.add(commit);
+      } catch (StatusException | RuntimeException e) {
+        pending.future.completeExceptionally(e);
+      }
+    }
+    if (accepted.isEmpty()) {
+      return;
+    }
+
+    try {
+      registry.update(
+          registry.ref(),
+          domain,
+          commits.stream().map(Commit::getReport).collect(Collectors.toList()),
+          combine(accepted));
+      long version = registry.snapshot().getVersion();
+      for (int i = 0; i < accepted.size(); i++) {
+        Commit commit = commits.get(i);
+        commit.version = version;
+        accepted.get(i).future.complete(commit);
+      }
+    } catch (RuntimeException e) {
+      LOG.error("Failed to commit to registry " + registry.getName(), e);
+      accepted.forEach(pending -> pending.future.completeExceptionally(e));
+    }
+  }
+
+  private static Comment combine(List<Pending> accepted) {
+    if (accepted.size() == 1) {
+      return accepted.get(0).comment;
+    }
+    String description =
+        accepted.stream()
+            .map(pending -> pending.comment.getDescription())
+            .filter(d -> d.length() > 0)
+            .collect(Collectors.joining("\n\n"));
+    return accepted.get(0).comment.toBuilder().setDescription(description).build();
+  }
+
+  /** Builds and validates the new state of the registry on top of the given base. */
+  @FunctionalInterface
+  public interface Mutation {
+    Commit apply(ProtoDomain base) throws StatusException;
+  }
+
+  /** Result of a mutation, once committed it carries the version it was published in. */
+  public static class Commit {
+    private final ProtoDomain domain;
+    private final Report report;
+    private long version;
+
+    public Commit(ProtoDomain domain, Report report) {
+      this.domain = domain;
+      this.report = report;
+    }
+
+    public ProtoDomain getDomain() {
+      return domain;
+    }
+
+    public Report getReport() {
+      return report;
+    }
+
+    public long getVersion() {
+      return version;
+    }
+  }
+
+  private static class Pending {
+    final long expectedVersion;
+    final Comment comment;
+    final Mutation mutation;
+    final CompletableFuture<Commit> future = new CompletableFuture<>();
+
+    Pending(long expectedVersion, Comment comment, Mutation mutation) {
+      this.expectedVersion = expectedVersion;
+      this.comment = comment;
+      this.mutation = mutation;
+    }
+  }
+}
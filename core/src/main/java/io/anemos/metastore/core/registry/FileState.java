@@ -0,0 +1,40 @@
+package io.anemos.metastore.core.registry;
+
+import com.google.common.hash.HashCode;
+
+/** Package and SHA-256 digest of a file of the registry, the file itself is not kept. */
+public final class FileState {
+  private final String packageName;
+  private final HashCode digest;
+
+  FileState(String packageName, HashCode digest) {
+    this.packageName = packageName;
+    this.digest = digest;
+  }
+
+  public String getPackageName() {
+    return packageName;
+  }
+
+  /** SHA-256 of the serialized FileDescriptorProto. */
+  public HashCode getDigest() {
+    return digest;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    FileState that = (FileState) o;
+    return packageName.equals(that.packageName) && digest.equals(that.digest);
+  }
+
+  @Override
+  public int hashCode() {
+    return digest.hashCode();
+  }
+}
@@ -0,0 +1,148 @@
+package io.anemos.metastore.core.registry;
+
+import io.anemos.metastore.putils.ProtoDomain;
+import io.anemos.metastore.v1alpha1.RegistryP.SubmitSchemaRequest.Comment;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Syncs a registry to its git repo on a background thread, so commits don't wait for the pull and
+ * push. Every sync writes the whole state of the registry, so syncs requested while one is running
+ * are coalesced: only the latest domain is kept and synced once, with the comments of all of them.
+ * At most {@link #MAX_PENDING_COMMENTS} comments are kept, older ones are dropped.
+ *
+ * <p>A failed sync is retried with exponential backoff, a newer domain requested in the meantime
+ * replaces the failed one.
+ */
+class GitSyncWorker {
+  private static final Logger LOG = LoggerFactory.getLogger(GitSyncWorker.class);
+  static final int MAX_PENDING_COMMENTS = 64;
+  private static final long INITIAL_BACKOFF_MILLIS = 1_000;
+  private static final long MAX_BACKOFF_MILLIS = 5 * 60_000;
+
+  private final BiConsumer<ProtoDomain, Comment> syncer;
+  private final String name;
+  private final long initialBackoff;
+  private final ScheduledExecutorService worker;
+  private final Deque<Comment> pendingComments = new ArrayDeque<>();
+  private ProtoDomain pendingDomain;
+  private int droppedComments;
+  private boolean running;
+  private long backoff;
+
+  GitSyncWorker(MetaGit metaGit, String name) {
+    this(metaGit::sync, name, INITIAL_BACKOFF_MILLIS);
+  }
+
+  /**
+   * @param syncer syncs a domain with a comment, throws a RuntimeException when it fails
+   * @param initialBackoff milliseconds before the first retry
+   */
+  GitSyncWorker(BiConsumer<ProtoDomain, Comment> syncer, String name, long initialBackoff) {
+    this.syncer = syncer;
+    this.name = name;
+    this.initialBackoff = initialBackoff;
+    this.worker =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "git-sync-" + name);
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** Queues a sync of the domain, returns immediately. */
+  synchronized void submit(ProtoDomain domain, Comment comment) {
+    pendingDomain = domain;
+    pendingComments.addLast(comment);
+    trimComments();
+    if (!running) {
+      running = true;
+      worker.execute(this::sync);
+    }
+  }
+
+  /**
+   * Waits until all queued syncs are done, returns false if they are still pending after the
+   * timeout.
+   */
+  synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (running) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return true;
+  }
+
+  private void sync() {
+    ProtoDomain domain;
+    Comment comment;
+    synchronized (this) {
+      domain = pendingDomain;
+      comment = combine();
+      pendingDomain = null;
+      pendingComments.clear();
+      droppedComments = 0;
+    }
+
+    try {
+      syncer.accept(domain, comment);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        if (pendingDomain == null) {
+          pendingDomain = domain;
+        }
+        pendingComments.addFirst(comment);
+        trimComments();
+        backoff = backoff == 0 ? initialBackoff : Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        LOG.warn("Git sync of registry " + name + " failed, retrying in " + backoff + "ms", e);
+        worker.schedule(this::sync, backoff, TimeUnit.MILLISECONDS);
+      }
+      return;
+    }
+
+    synchronized (this) {
+      backoff = 0;
+      if (pendingDomain != null) {
+        worker.execute(this::sync);
+      } else {
+        running = false;
+        notifyAll();
+      }
+    }
+  }
+
+  private void trimComments() {
+    while (pendingComments.size() > MAX_PENDING_COMMENTS) {
+      pendingComments.removeFirst();
+      droppedComments++;
+    }
+  }
+
+  private Comment combine() {
+    if (pendingComments.size() == 1 && droppedComments == 0) {
+      return pendingComments.getFirst();
+    }
+    String description =
+        pendingComments.stream()
+            .map(Comment::getDescription)
+            .filter(d -> d.length() > 0)
+            .collect(Collectors.joining("\n\n"));
+    if (droppedComments > 0) {
+      String dropped = String.format("(and %d earlier changes)", droppedComments);
+      description = description.isEmpty() ? dropped : description + "\n\n" + dropped;
+    }
+    return pendingComments.getLast().toBuilder().setDescription(description).build();
+  }
+}
@@ -1,5 +1,9 @@
 package io.anemos.metastore.core.registry;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.Descriptors;
 import com.jcraft.jsch.HostKey;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
@@ -16,15 +20,31 @@ import io.opencensus.trace.Tracing;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.RmCommand;
 import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
 import org.eclipse.jgit.api.TransportConfigCallback;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.JschConfigSessionFactory;
 import org.eclipse.jgit.transport.OpenSshConfig;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
 import org.eclipse.jgit.transport.SshTransport;
 import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.util.FS;
@@ -34,9 +54,16 @@ import org.slf4j.LoggerFactory;
 class MetaGit {
   private static final Logger LOG = LoggerFactory.getLogger(MetaGit.class);
   private static final Tracer TRACER = Tracing.getTracer();
+  private static final String MODE_CLONE = "clone";
+  private static final String MODE_REUSE = "reuse";
+  private static final String MODE_LOCAL = "local";
   private final RegistryConfig config;
   private final GitGlobalConfig global;
   private Git gitRepo;
+  // Render keys of the files in the working tree as of the last sync, null to sync everything.
+  private Map<String, HashCode> synced;
+  // Head of the remote branch the working tree is based on, null when unknown.
+  private ObjectId remoteHead;
   private TransportConfigCallback transportConfigCallback;
 
   MetaGit(RegistryConfig config, GitGlobalConfig global) {
@@ -44,12 +71,142 @@ class MetaGit {
     this.global = global;
   }
 
-  private void push() throws GitAPIException {
-    gitRepo.push().setTransportConfigCallback(transportConfigCallback).call();
+  boolean isEnabled() {
+    return config.git != null;
   }
 
-  private void pull() throws GitAPIException {
-    gitRepo.pull().setTransportConfigCallback(transportConfigCallback).call();
+  private boolean hasRemote() {
+    return !gitRepo.getRepository().getRemoteNames().isEmpty();
+  }
+
+  /** Pushes the branch, fails unless the remote accepted every ref update. */
+  private void push() throws GitAPIException, IOException {
+    if (!hasRemote()) {
+      return;
+    }
+    Iterable<PushResult> results =
+        gitRepo.push().setTransportConfigCallback(transportConfigCallback).call();
+    for (PushResult result : results) {
+      for (RemoteRefUpdate update : result.getRemoteUpdates()) {
+        RemoteRefUpdate.Status status = update.getStatus();
+        if (status != RemoteRefUpdate.Status.OK && status != RemoteRefUpdate.Status.UP_TO_DATE) {
+          throw new IOException(
+              String.format(
+                  "Push of %s rejected: %s %s",
+                  update.getRemoteName(),
+                  status,
+                  update.getMessage() == null ? "" : update.getMessage()));
+        }
+      }
+    }
+    remoteHead = gitRepo.getRepository().resolve(Constants.HEAD);
+  }
+
+  /**
+   * Brings the working tree to the state of the remote branch. The registry is the only writer of
+   * the repo, so the tree is reset to the fetched branch instead of merged. Only the remote refs
+   * are listed as long as the branch didn't move since the last pull or push. A remote without the
+   * branch, like a new bare repo, leaves the tree as is.
+   *
+   * @return whether the working tree was reset
+   */
+  private boolean pull() throws GitAPIException, IOException {
+    if (!hasRemote()) {
+      return false;
+    }
+    Repository repository = gitRepo.getRepository();
+    String branch = Constants.R_HEADS + repository.getBranch();
+    ObjectId head = null;
+    for (Ref ref :
+        gitRepo
+            .lsRemote()
+            .setRemote(Constants.DEFAULT_REMOTE_NAME)
+            .setHeads(true)
+            .setTransportConfigCallback(transportConfigCallback)
+            .call()) {
+      if (ref.getName().equals(branch)) {
+        head = ref.getObjectId();
+      }
+    }
+    if (head == null || head.equals(remoteHead)) {
+      return false;
+    }
+    gitRepo.fetch().setTransportConfigCallback(transportConfigCallback).call();
+    Ref upstream =
+        repository.exactRef(
+            Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + repository.getBranch());
+    if (upstream == null) {
+      return false;
+    }
+    gitRepo.reset().setMode(ResetCommand.ResetType.HARD).setRef(upstream.getName()).call();
+    gitRepo.clean().setCleanDirectories(true).call();
+    remoteHead = upstream.getObjectId();
+    return true;
+  }
+
+  private Git cloneRemote(String remote) throws GitAPIException, IOException {
+    File path = new File(config.git.path);
+    if (path.exists()) {
+      FileUtils.forceDelete(path);
+    }
+    Git git =
+        Git.cloneRepository()
+            .setURI(remote)
+            .setDirectory(path)
+            .setTransportConfigCallback(transportConfigCallback)
+            .call();
+    remoteHead = git.getRepository().resolve(Constants.HEAD);
+    return git;
+  }
+
+  /**
+   * Opens the existing clone of the remote and updates it, so only the new commits are fetched.
+   * Falls back to a fresh clone when there is no usable clone of that remote.
+   */
+  private Git reuseOrClone(String remote) throws GitAPIException, IOException {
+    File path = new File(config.git.path);
+    if (new File(path, Constants.DOT_GIT).isDirectory()) {
+      Git git = Git.open(path);
+      String url =
+          git.getRepository()
+              .getConfig()
+              .getString(
+                  ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "url");
+      if (remote.equals(url)) {
+        try {
+          gitRepo = git;
+          pull();
+          LOG.info("Reusing local clone " + path);
+          return git;
+        } catch (GitAPIException | IOException e) {
+          LOG.warn("Can't update local clone " + path + ", cloning again", e);
+        }
+      }
+      git.close();
+    }
+    return cloneRemote(remote);
+  }
+
+  /**
+   * Works without a network remote. The working tree pushes to a bare repo on disk, created when
+   * missing, so the history is kept. Without a remote the commits stay in the working tree repo.
+   */
+  private Git openLocal() throws GitAPIException, IOException {
+    if (config.git.remote == null) {
+      File path = new File(config.git.path);
+      if (new File(path, Constants.DOT_GIT).isDirectory()) {
+        return Git.open(path);
+      }
+      return Git.init().setDirectory(path).call();
+    }
+    File bare =
+        config.git.remote.startsWith("file:")
+            ? new File(URI.create(config.git.remote))
+            : new File(config.git.remote);
+    if (!bare.exists()) {
+      Git.init().setBare(true).setDirectory(bare).call().close();
+    }
+    return reuseOrClone(config.git.remote);
   }
 
   private void clean(ProtoDomain domain) throws GitAPIException {
@@ -74,22 +231,76 @@ class MetaGit {
     }
   }
 
+  /**
+   * Writes the domain to the working tree, commits and pushes it. Only the files that changed since
+   * the last sync are rendered, staged and checked for changes. The first sync after init, after a
+   * failed sync or after the remote branch moved writes every file and cleans up the files no
+   * longer in the domain.
+   */
   void sync(ProtoDomain protoContainer, Comment comment) {
     if (config.git == null) {
       return;
     }
 
+    String root = new File(config.git.path).toPath().toString();
+    Map<String, HashCode> keys = renderKeys(protoContainer);
+    Map<String, HashCode> previous = synced;
+    synced = null;
+
     try (Scope ss = TRACER.spanBuilder("GitSync").setRecordEvents(true).startScopedSpan()) {
-      if (System.getenv("DEBUG") != null && System.getenv("DEBUG").equals("true")) {
-        protoContainer.writeToDirectory(new File(config.git.path).toPath().toString());
+      boolean debug = System.getenv("DEBUG") != null && System.getenv("DEBUG").equals("true");
+      if (!debug && pull()) {
+        previous = null;
+      }
+      List<String> changed = new ArrayList<>();
+      List<String> removed = new ArrayList<>();
+      if (previous != null) {
+        Map<String, HashCode> last = previous;
+        keys.forEach(
+            (fileName, key) -> {
+              if (!key.equals(last.get(fileName))) {
+                changed.add(fileName);
+              }
+            });
+        last.keySet().stream().filter(f -> !keys.containsKey(f)).forEach(removed::add);
+      }
+
+      if (debug) {
+        if (previous == null) {
+          protoContainer.writeToDirectory(root);
+        } else {
+          protoContainer.writeToDirectory(root, changed);
+        }
+        synced = keys;
         return;
       }
 
-      pull();
-      protoContainer.writeToDirectory(new File(config.git.path).toPath().toString());
-      gitRepo.add().addFilepattern(".").call();
-      clean(protoContainer);
-      Status status = gitRepo.status().call();
+      StatusCommand statusCommand = gitRepo.status();
+      if (previous == null) {
+        protoContainer.writeToDirectory(root);
+        gitRepo.add().addFilepattern(".").call();
+        clean(protoContainer);
+      } else {
+        if (changed.isEmpty() && removed.isEmpty()) {
+          LOG.info("No changes to commit");
+          synced = keys;
+          return;
+        }
+        protoContainer.writeToDirectory(root, changed);
+        if (!changed.isEmpty()) {
+          AddCommand add = gitRepo.add();
+          changed.forEach(add::addFilepattern);
+          add.call();
+        }
+        if (!removed.isEmpty()) {
+          RmCommand rm = gitRepo.rm();
+          removed.forEach(rm::addFilepattern);
+          rm.call();
+        }
+        changed.forEach(statusCommand::addPath);
+        removed.forEach(statusCommand::addPath);
+      }
+      Status status = statusCommand.call();
       if (status.hasUncommittedChanges()) {
         CommitCommand commit = gitRepo.commit();
         if (comment.getDescription().length() > 0) {
@@ -106,11 +317,47 @@ class MetaGit {
       } else {
         LOG.info("No changes to commit");
       }
+      synced = keys;
     } catch (Exception e) {
+      // a commit that wasn't pushed is dropped by resetting to the remote on the next sync
+      remoteHead = null;
       throw new RuntimeException("Failed syncing the git repo", e);
     }
   }
 
+  /**
+   * Key of the rendered source of every file in the domain. Rendering resolves options against the
+   * imported files, so the key covers the file and everything it imports.
+   */
+  private static Map<String, HashCode> renderKeys(ProtoDomain domain) {
+    Map<String, HashCode> keys = new HashMap<>();
+    for (Descriptors.FileDescriptor fd : domain.iterator()) {
+      renderKey(fd, domain, keys);
+    }
+    keys.keySet().removeIf(fileName -> fileName.startsWith("google/protobuf"));
+    return keys;
+  }
+
+  private static HashCode renderKey(
+      Descriptors.FileDescriptor fd, ProtoDomain domain, Map<String, HashCode> keys) {
+    HashCode key = keys.get(fd.getFullName());
+    if (key == null) {
+      Hasher hasher = Hashing.sha256().newHasher();
+      HashCode fileDigest = domain.getFileDigest(fd.getFullName());
+      if (fileDigest != null) {
+        hasher.putBytes(fileDigest.asBytes());
+      } else {
+        hasher.putBytes(fd.toProto().toByteArray());
+      }
+      for (Descriptors.FileDescriptor dependency : fd.getDependencies()) {
+        hasher.putBytes(renderKey(dependency, domain, keys).asBytes());
+      }
+      key = hasher.hash();
+      keys.put(fd.getFullName(), key);
+    }
+    return key;
+  }
+
   private File sshPrivateKey() throws IOException {
     String privateKeyBase64 = config.git.privateKey;
     if (privateKeyBase64 == null) {
@@ -139,10 +386,6 @@ class MetaGit {
         return;
       }
       try {
-        if (new File(config.git.path).exists()) {
-          FileUtils.forceDelete(new File(config.git.path));
-        }
-
         JschConfigSessionFactory sshSessionFactory =
             new JschConfigSessionFactory() {
               @Override
@@ -203,19 +446,31 @@ class MetaGit {
             new TransportConfigCallback() {
               @Override
               public void configure(Transport transport) {
-                SshTransport sshTransport = (SshTransport) transport;
-                sshTransport.setSshSessionFactory(sshSessionFactory);
+                if (transport instanceof SshTransport) {
+                  ((SshTransport) transport).setSshSessionFactory(sshSessionFactory);
+                }
               }
             };
 
         LOG.info("Git Local: " + config.git.path);
         LOG.info("Git Remote: " + config.git.remote);
-        this.gitRepo =
-            Git.cloneRepository()
-                .setURI(config.git.remote)
-                .setDirectory(new File(config.git.path))
-                .setTransportConfigCallback(transportConfigCallback)
-                .call();
+        String mode = config.git.mode == null ? MODE_CLONE : config.git.mode;
+        LOG.info("Git Mode: " + mode);
+        this.synced = null;
+        this.remoteHead = null;
+        switch (mode) {
+          case MODE_CLONE:
+            this.gitRepo = cloneRemote(config.git.remote);
+            break;
+          case MODE_REUSE:
+            this.gitRepo = reuseOrClone(config.git.remote);
+            break;
+          case MODE_LOCAL:
+            this.gitRepo = openLocal();
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown git mode " + mode);
+        }
       } catch (Exception e) {
         throw new RuntimeException("Can't init local shadowCache repo", e);
       }
@@ -6,6 +6,8 @@ import io.anemos.metastore.v1alpha1.RegistryP.SubmitSchemaRequest.Comment;
 import io.grpc.Status;
 import io.grpc.StatusException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -52,10 +54,14 @@ public class Registries {
   void notifyShadows(String name, Comment comment) {
     List<AbstractRegistry> registries = shadowSubscribers.get(name);
     if (registries != null) {
-      registries.forEach(registry -> registry.update(comment));
+      registries.forEach(registry -> registry.refresh(comment));
     }
   }
 
+  public Collection<AbstractRegistry> getRegistries() {
+    return Collections.unmodifiableCollection(registries.values());
+  }
+
   public AbstractRegistry get(String name) throws StatusException {
     if (name.equals("")) {
       name = "default";
@@ -0,0 +1,67 @@
+package io.anemos.metastore.core.registry;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import io.anemos.metastore.putils.ProtoDomain;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable state of a registry at a given version. Readers take a single snapshot and use it for
+ * the whole request, so they never see a mix of two versions. Writers never modify a snapshot,
+ * they publish a new one.
+ */
+public final class RegistrySnapshot {
+  private final ProtoDomain domain;
+  private final long version;
+  private volatile Map<String, FileState> files;
+
+  RegistrySnapshot(ProtoDomain domain, long version) {
+    this.domain = domain;
+    this.version = version;
+  }
+
+  public ProtoDomain getDomain() {
+    return domain;
+  }
+
+  /** Monotonic version of the registry, incremented every time a new state is published. */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the serialized FileDescriptorProto of a file of this snapshot. The bytes are kept by
+   * the domain, so they are encoded at most once and shared by all requests and versions.
+   */
+  public ByteString getFileBytes(Descriptors.FileDescriptor fileDescriptor) {
+    ByteString bytes = domain.getFileBytes(fileDescriptor.getName());
+    return bytes != null ? bytes : fileDescriptor.toProto().toByteString();
+  }
+
+  public List<ByteString> getFileBytes(Collection<Descriptors.FileDescriptor> fileDescriptors) {
+    return fileDescriptors.stream().map(this::getFileBytes).collect(Collectors.toList());
+  }
+
+  /** Package and digest of every file, by file name. */
+  public Map<String, FileState> getFiles() {
+    Map<String, FileState> states = files;
+    if (states == null) {
+      Map<String, FileState> map = new HashMap<>();
+      domain
+          .getFileDescriptors()
+          .forEach(
+              fd ->
+                  map.put(
+                      fd.getName(),
+                      new FileState(fd.getPackage(), domain.getFileDigest(fd.getName()))));
+      states = Collections.unmodifiableMap(map);
+      files = states;
+    }
+    return states;
+  }
+}
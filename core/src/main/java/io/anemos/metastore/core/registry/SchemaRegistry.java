@@ -4,12 +4,17 @@ import com.google.protobuf.ByteString;
 import io.anemos.metastore.config.GitGlobalConfig;
 import io.anemos.metastore.config.MetaStoreConfig;
 import io.anemos.metastore.config.RegistryConfig;
+import io.anemos.metastore.putils.FileDescriptorSets;
 import io.anemos.metastore.putils.ProtoDomain;
 import io.anemos.metastore.v1alpha1.RegistryP.SubmitSchemaRequest.Comment;
 import io.anemos.metastore.v1alpha1.Report;
 import java.io.IOException;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 class SchemaRegistry extends AbstractRegistry {
+  private static final Logger LOG = LoggerFactory.getLogger(SchemaRegistry.class);
   private final String name;
 
   public SchemaRegistry(
@@ -32,25 +37,23 @@ class SchemaRegistry extends AbstractRegistry {
 
   @Override
   public ByteString raw() {
-    return protoContainer.toByteString();
-  }
-
-  @Override
-  public ProtoDomain get() {
-    return protoContainer;
+    return get().toByteString();
   }
 
   @Override
   public ProtoDomain ref() {
-    return protoContainer;
+    return get();
   }
 
+  /** The new version is only published once it's stored, readers never see a lost version. */
   @Override
-  public void update(ProtoDomain ref, ProtoDomain in, Report report, Comment comment) {
-    protoContainer = in;
-    update(comment);
+  void update(ProtoDomain ref, ProtoDomain in, List<Report> reports, Comment comment) {
+    long version = snapshot().getVersion() + 1;
+    write(in, version);
+    publish(in, version);
+    registries.notifyShadows(this.name, comment);
     syncGitRepo(comment);
-    notifyEventListeners(report);
+    reports.forEach(this::notifyEventListeners);
   }
 
   @Override
@@ -60,18 +63,66 @@ class SchemaRegistry extends AbstractRegistry {
   }
 
   void write() {
-    storageProvider.write(raw());
+    RegistrySnapshot current = snapshot();
+    write(current.getDomain(), current.getVersion());
+  }
+
+  private void write(ProtoDomain domain, long version) {
+    if (storageProvider.isVersioned()) {
+      storageProvider.write(version, domain.toByteString());
+    } else {
+      storageProvider.write(domain.toByteString());
+    }
+    if (storageProvider.isSnapshotSupported()) {
+      storageProvider.writeSnapshot(domain.toSnapshot());
+    }
+  }
+
+  /**
+   * Publishes the domain read from storage. When it's the latest version of a versioned storage
+   * that version is published again, nothing is written. Otherwise a versioned storage continues
+   * its version sequence with a new version, so a version number never stands for two different
+   * states. Returns whether the new version still has to be written.
+   */
+  private boolean restore(ProtoDomain domain) throws IOException {
+    if (storageProvider.isVersioned()) {
+      long latest = storageProvider.getLatestVersion();
+      if (latest > 0 && isStored(domain, latest)) {
+        publish(domain, latest);
+        return false;
+      }
+      publish(domain, latest + 1);
+      return true;
+    }
+    publish(domain);
+    return false;
+  }
+
+  /** Compares the digests, the stored files are hashed without building a domain from them. */
+  private boolean isStored(ProtoDomain domain, long version) throws IOException {
+    ByteString buffer = storageProvider.read(version);
+    return buffer != null
+        && FileDescriptorSets.digest(FileDescriptorSets.split(buffer)).equals(domain.getDigest());
   }
 
   private boolean read() {
+    if (storageProvider.isSnapshotSupported()) {
+      ByteString snapshot = storageProvider.readSnapshot();
+      if (snapshot != null) {
+        try {
+          return restore(ProtoDomain.buildFromSnapshot(snapshot));
+        } catch (IOException | RuntimeException e) {
+          LOG.warn("Ignoring unreadable snapshot of registry " + name, e);
+        }
+      }
+    }
     try {
       ByteString buffer = storageProvider.read();
       if (buffer == null) {
-        this.protoContainer = ProtoDomain.empty();
+        publish(ProtoDomain.empty());
         return true;
       } else {
-        this.protoContainer = ProtoDomain.buildFrom(buffer);
-        return false;
+        return restore(ProtoDomain.buildFrom(buffer));
       }
     } catch (IOException e) {
       throw new RuntimeException("failed to read default.pb", e);
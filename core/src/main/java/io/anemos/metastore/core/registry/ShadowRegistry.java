@@ -5,12 +5,13 @@ import io.anemos.metastore.config.GitGlobalConfig;
 import io.anemos.metastore.config.MetaStoreConfig;
 import io.anemos.metastore.config.RegistryConfig;
 import io.anemos.metastore.core.proto.validate.ProtoDiff;
-import io.anemos.metastore.core.proto.validate.ValidationResults;
+import io.anemos.metastore.core.proto.validate.ReportSink;
 import io.anemos.metastore.putils.ProtoDomain;
 import io.anemos.metastore.v1alpha1.RegistryP.SubmitSchemaRequest.Comment;
 import io.anemos.metastore.v1alpha1.Report;
 import io.grpc.StatusException;
 import java.io.IOException;
+import java.util.List;
 
 class ShadowRegistry extends AbstractRegistry {
   private Report delta;
@@ -42,8 +43,9 @@ class ShadowRegistry extends AbstractRegistry {
     } catch (StatusException e) {
       throw new RuntimeException("Unable to find registry with name " + shadowOf);
     }
-    protoContainer = new ShadowApply().applyDelta(original, this.delta);
-    protoContainer.registerOptions();
+    ProtoDomain shadow = new ShadowApply().applyDelta(original, this.delta);
+    shadow.registerOptions();
+    publish(shadow);
   }
 
   @Override
@@ -51,11 +53,6 @@ class ShadowRegistry extends AbstractRegistry {
     return delta.toByteString();
   }
 
-  @Override
-  public ProtoDomain get() {
-    return protoContainer;
-  }
-
   @Override
   public ProtoDomain ref() {
     try {
@@ -66,8 +63,8 @@ class ShadowRegistry extends AbstractRegistry {
   }
 
   @Override
-  public void update(ProtoDomain ref, ProtoDomain in, Report report, Comment comment) {
-    ValidationResults results = new ValidationResults();
+  void update(ProtoDomain ref, ProtoDomain in, List<Report> reports, Comment comment) {
+    ReportSink results = new ReportSink();
     ProtoDiff diff = new ProtoDiff(ref, in, results);
     if (registryConfig.scope != null) {
       for (String packagePrefix : registryConfig.scope) {
@@ -78,7 +75,7 @@ class ShadowRegistry extends AbstractRegistry {
     }
     delta = results.createProto();
     update(comment);
-    notifyEventListeners(report);
+    reports.forEach(this::notifyEventListeners);
   }
 
   @Override
@@ -0,0 +1,12 @@
+package io.anemos.metastore.core.registry;
+
+/** Notified every time a registry publishes a new snapshot. */
+@FunctionalInterface
+public interface SnapshotListener {
+
+  /**
+   * Called on the committer thread of the registry after the snapshot became visible, so
+   * implementations should return quickly.
+   */
+  void snapshotPublished(AbstractRegistry registry, RegistrySnapshot snapshot);
+}
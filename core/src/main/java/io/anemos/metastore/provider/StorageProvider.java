@@ -17,4 +17,45 @@ public interface StorageProvider {
 
   /** Write the ProtoDescriptorSet tot storage. */
   void write(ByteString payload);
+
+  /**
+   * Whether the provider keeps the history of the registry. A versioned provider is written with
+   * {@link #write(long, ByteString)} and serves earlier versions with {@link #read(long)}.
+   */
+  default boolean isVersioned() {
+    return false;
+  }
+
+  /** Write the ProtoDescriptorSet as the given version of the registry, and as the latest blob. */
+  default void write(long version, ByteString payload) {
+    write(payload);
+  }
+
+  /** Read the ProtoDescriptorSet of a version of the registry, null if it's not retained. */
+  default ByteString read(long version) {
+    return null;
+  }
+
+  /** The last version written with {@link #write(long, ByteString)}, 0 if there is none. */
+  default long getLatestVersion() {
+    return 0;
+  }
+
+  /**
+   * Whether the provider keeps a startup snapshot of the registry next to the blob. The snapshot
+   * restores the registry faster than the blob, the blob stays the source of truth.
+   */
+  default boolean isSnapshotSupported() {
+    return false;
+  }
+
+  /**
+   * Read the startup snapshot, null if there is none or if it's older than the blob written last.
+   */
+  default ByteString readSnapshot() {
+    return null;
+  }
+
+  /** Write the startup snapshot, after the blob it was derived from. */
+  default void writeSnapshot(ByteString snapshot) {}
 }
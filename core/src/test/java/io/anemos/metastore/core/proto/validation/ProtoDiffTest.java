@@ -428,6 +428,92 @@ public class ProtoDiffTest {
     Assert.assertEquals("", result.getMethodResults(1).getChange().getToName());
   }
 
+  @Test
+  public void unchangedFilesAreSkipped() throws Exception {
+    DescriptorProtos.FileDescriptorProto importing =
+        DescriptorProtos.FileDescriptorProto.newBuilder()
+            .setName("package/v1/file2.proto")
+            .setPackage("package.v1")
+            .addDependency(FILE_V1.getName())
+            .addMessageType(
+                DescriptorProtos.DescriptorProto.newBuilder()
+                    .setName("Message2")
+                    .addField(
+                        DescriptorProtos.FieldDescriptorProto.newBuilder()
+                            .setNumber(1)
+                            .setName("message1")
+                            .setType(DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE)
+                            .setTypeName(".package.v1.Message1")))
+            .build();
+    ProtoDomain dRef = ProtoDomain.builder().add(FILE_V1).add(importing).build();
+
+    ValidationResults results = new ValidationResults();
+    new ProtoDiff(dRef, ProtoDomain.builder().add(FILE_V1).add(importing).build(), results)
+        .diffOnPackagePrefix("");
+    Assert.assertEquals(Report.getDefaultInstance(), results.createProto());
+
+    DescriptorProtos.FileDescriptorProto fd =
+        FILE_V1
+            .toBuilder()
+            .setMessageType(
+                0, FILE_V1.getMessageType(0).toBuilder().setName("Message1").clearField())
+            .build();
+    results = new ValidationResults();
+    new ProtoDiff(dRef, ProtoDomain.builder().add(fd).add(importing).build(), results)
+        .diffOnPackagePrefix("");
+    Report report = results.createProto();
+    Assert.assertEquals(1, report.getMessageResultsCount());
+    Assert.assertEquals(
+        ChangeType.REMOVAL,
+        report
+            .getMessageResultsMap()
+            .get("package.v1.Message1")
+            .getFieldResults(0)
+            .getChange()
+            .getChangeType());
+  }
+
+  @Test
+  public void parallelDiffIsIdentical() throws Exception {
+    ProtoDomain.Builder ref = ProtoDomain.builder();
+    ProtoDomain.Builder in = ProtoDomain.builder();
+    for (int i = 0; i < 100; i++) {
+      DescriptorProtos.FileDescriptorProto fd =
+          FILE_V1
+              .toBuilder()
+              .setName(String.format("package/v%d/file1.proto", i))
+              .setPackage(String.format("package.v%d", i))
+              .clearService()
+              .build();
+      if (i % 10 != 0) {
+        ref.add(fd);
+      }
+      if (i % 3 == 0) {
+        fd = fd.toBuilder().removeMessageType(0).removeEnumType(0).build();
+      }
+      if (i % 10 != 5) {
+        in.add(fd);
+      }
+    }
+    ProtoDomain dRef = ref.build();
+    ProtoDomain dNew = in.build();
+
+    try {
+      ProtoDiff.setParallelThreshold(Integer.MAX_VALUE);
+      ValidationResults sequential = new ValidationResults();
+      new ProtoDiff(dRef, dNew, sequential).diffOnPackagePrefix("");
+
+      ProtoDiff.setParallelThreshold(1);
+      ValidationResults parallel = new ValidationResults();
+      new ProtoDiff(dRef, dNew, parallel).diffOnPackagePrefix("");
+
+      Assert.assertEquals(
+          sequential.createProto().toByteString(), parallel.createProto().toByteString());
+    } finally {
+      ProtoDiff.setParallelThreshold(ProtoDiff.DEFAULT_PARALLEL_THRESHOLD);
+    }
+  }
+
   private Report diff(ProtoDomain dRef, ProtoDomain dNew) throws IOException {
     ValidationResults results = new ValidationResults();
     ProtoDiff diff = new ProtoDiff(dRef, dNew, results);
@@ -0,0 +1,137 @@
+package io.anemos.metastore.core.proto.validation;
+
+import io.anemos.metastore.core.proto.TestSets;
+import io.anemos.metastore.core.proto.profile.ProfileAllowAdd;
+import io.anemos.metastore.core.proto.profile.ValidationProfile;
+import io.anemos.metastore.core.proto.validate.CountingSink;
+import io.anemos.metastore.core.proto.validate.ProtoDiff;
+import io.anemos.metastore.core.proto.validate.ProtoLint;
+import io.anemos.metastore.core.proto.validate.ReportSink;
+import io.anemos.metastore.core.proto.validate.StreamingSink;
+import io.anemos.metastore.core.proto.validate.ValidationResults;
+import io.anemos.metastore.putils.ProtoDomain;
+import io.anemos.metastore.v1alpha1.ChangeType;
+import io.anemos.metastore.v1alpha1.FieldResult;
+import io.anemos.metastore.v1alpha1.MessageResult;
+import io.anemos.metastore.v1alpha1.Report;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ResultSinkTest {
+
+  @Test
+  public void sinksSeeTheSameResults() throws Exception {
+    ProtoDomain dRef = TestSets.baseExtraFile();
+    ProtoDomain dNew = TestSets.baseRemoveString();
+
+    ValidationResults results = new ValidationResults();
+    new ProtoDiff(dRef, dNew, results).diffOnPackagePrefix("");
+    Report report = results.createProto();
+
+    CountingSink counting = new CountingSink();
+    new ProtoDiff(dRef, dNew, counting).diffOnPackagePrefix("");
+
+    List<Report> streamed = new ArrayList<>();
+    new ProtoDiff(dRef, dNew, new StreamingSink(streamed::add)).diffOnPackagePrefix("");
+
+    // the extra file, its message and the string field
+    Assert.assertEquals(3, counting.getChangeCount(ChangeType.REMOVAL));
+    Assert.assertTrue(streamed.size() >= counting.getDiffCount());
+    Assert.assertEquals(0, counting.toResultCount().getDiffErrors());
+
+    Set<String> streamedMessages = new HashSet<>();
+    Set<String> streamedFiles = new HashSet<>();
+    for (Report fragment : streamed) {
+      streamedMessages.addAll(fragment.getMessageResultsMap().keySet());
+      streamedFiles.addAll(fragment.getFileResultsMap().keySet());
+    }
+    Assert.assertEquals(report.getMessageResultsMap().keySet(), streamedMessages);
+    Assert.assertEquals(report.getFileResultsMap().keySet(), streamedFiles);
+  }
+
+  /** Fields are in a different order, ValidationResults keeps them in a HashMap. */
+  private static MessageResult sortFields(MessageResult result) {
+    List<FieldResult> fields = new ArrayList<>(result.getFieldResultsList());
+    fields.sort(Comparator.comparing(FieldResult::getName));
+    return result.toBuilder().clearFieldResults().addAllFieldResults(fields).build();
+  }
+
+  private static void assertSameReport(ProtoDomain dRef, ProtoDomain dNew) {
+    ValidationResults results = new ValidationResults();
+    new ProtoDiff(dRef, dNew, results).diffOnPackagePrefix("");
+    new ProtoLint(dNew, results).lintOnPackagePrefix("");
+    Report expected = results.createProto();
+
+    ReportSink sink = new ReportSink();
+    new ProtoDiff(dRef, dNew, sink).diffOnPackagePrefix("");
+    new ProtoLint(dNew, sink).lintOnPackagePrefix("");
+    Report actual = sink.createProto();
+
+    Assert.assertEquals(expected.getFileResultsMap(), actual.getFileResultsMap());
+    Assert.assertEquals(expected.getServiceResultsMap(), actual.getServiceResultsMap());
+    Assert.assertEquals(expected.getEnumResultsMap(), actual.getEnumResultsMap());
+    Assert.assertEquals(
+        expected.getMessageResultsMap().keySet(), actual.getMessageResultsMap().keySet());
+    expected
+        .getMessageResultsMap()
+        .forEach(
+            (name, result) ->
+                Assert.assertEquals(
+                    sortFields(result), sortFields(actual.getMessageResultsOrThrow(name))));
+  }
+
+  @Test
+  public void reportSinkBuildsTheSameReport() throws Exception {
+    assertSameReport(TestSets.baseExtraFile(), TestSets.baseRemoveString());
+    assertSameReport(TestSets.base(), TestSets.baseDeprecateString());
+    assertSameReport(TestSets.baseKnownOption(), TestSets.baseAddMessageOption());
+    assertSameReport(TestSets.baseAddFieldOption(), TestSets.baseChangeFieldOption());
+  }
+
+  @Test
+  public void countingSinkCountsFieldRemoval() throws Exception {
+    CountingSink counting = new CountingSink();
+    new ProtoDiff(TestSets.base(), TestSets.baseRemoveString(), counting)
+        .diffOnMessage("test.v1.ProtoBeamBasicMessage");
+
+    ValidationResults results = new ValidationResults();
+    new ProtoDiff(TestSets.base(), TestSets.baseRemoveString(), results)
+        .diffOnMessage("test.v1.ProtoBeamBasicMessage");
+    MessageResult result =
+        results.createProto().getMessageResultsOrThrow("test.v1.ProtoBeamBasicMessage");
+
+    Assert.assertEquals(result.getFieldResultsCount(), counting.getDiffCount());
+    Assert.assertEquals(0, counting.getLintCount());
+  }
+
+  private static void assertSameErrors(ProtoDomain dRef, ProtoDomain dNew) {
+    ValidationProfile profile = new ProfileAllowAdd();
+    ReportSink sink = new ReportSink();
+    new ProtoDiff(dRef, dNew, sink).diffOnPackagePrefix("");
+    Report report = profile.validate(sink.createProto());
+
+    CountingSink counting = new CountingSink(profile);
+    new ProtoDiff(dRef, dNew, counting).diffOnPackagePrefix("");
+    Assert.assertEquals(
+        report.getResultCount().getDiffErrors(), counting.toResultCount().getDiffErrors());
+  }
+
+  @Test
+  public void countingSinkCountsTheErrorsOfTheProfile() throws Exception {
+    assertSameErrors(TestSets.baseExtraFile(), TestSets.baseRemoveString());
+    assertSameErrors(TestSets.base(), TestSets.baseReserveString());
+    assertSameErrors(TestSets.base(), TestSets.baseDeprecateString());
+
+    CountingSink counting = new CountingSink(new ProfileAllowAdd());
+    new ProtoDiff(TestSets.base(), TestSets.baseRemoveString(), counting).diffOnPackagePrefix("");
+    Assert.assertEquals(1, counting.getDiffErrorCount());
+  }
+}
@@ -0,0 +1,115 @@
+package io.anemos.metastore.core.registry;
+
+import io.anemos.metastore.core.proto.TestSets;
+import io.anemos.metastore.putils.ProtoDomain;
+import io.anemos.metastore.v1alpha1.RegistryP.SubmitSchemaRequest.Comment;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitSyncWorkerTest {
+
+  private static Comment comment(String description) {
+    return Comment.newBuilder().setDescription(description).setName("test").build();
+  }
+
+  /** Records the syncs, the first one blocks until it's released. */
+  private static class Syncs {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<ProtoDomain> domains = Collections.synchronizedList(new ArrayList<>());
+    final List<Comment> comments = Collections.synchronizedList(new ArrayList<>());
+
+    void sync(ProtoDomain domain, Comment comment) {
+      domains.add(domain);
+      comments.add(comment);
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  @Test
+  public void syncsAreCoalesced() throws Exception {
+    Syncs syncs = new Syncs();
+    GitSyncWorker worker = new GitSyncWorker(syncs::sync, "test", 10);
+    ProtoDomain first = TestSets.base();
+    ProtoDomain second = TestSets.baseExtraFile();
+    ProtoDomain third = TestSets.baseRemoveString();
+
+    worker.submit(first, comment("first"));
+    Assert.assertTrue(syncs.started.await(10, TimeUnit.SECONDS));
+    worker.submit(second, comment("second"));
+    worker.submit(third, comment("third"));
+    Assert.assertFalse(worker.awaitIdle(10, TimeUnit.MILLISECONDS));
+    syncs.release.countDown();
+    Assert.assertTrue(worker.awaitIdle(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(2, syncs.domains.size());
+    Assert.assertSame(first, syncs.domains.get(0));
+    Assert.assertEquals("first", syncs.comments.get(0).getDescription());
+    Assert.assertSame(third, syncs.domains.get(1));
+    Assert.assertEquals("second\n\nthird", syncs.comments.get(1).getDescription());
+  }
+
+  @Test
+  public void pendingCommentsAreCapped() throws Exception {
+    Syncs syncs = new Syncs();
+    GitSyncWorker worker = new GitSyncWorker(syncs::sync, "test", 10);
+    ProtoDomain domain = TestSets.base();
+
+    worker.submit(domain, comment("first"));
+    Assert.assertTrue(syncs.started.await(10, TimeUnit.SECONDS));
+    int pending = GitSyncWorker.MAX_PENDING_COMMENTS + 36;
+    for (int i = 0; i < pending; i++) {
+      worker.submit(domain, comment("change " + i));
+    }
+    syncs.release.countDown();
+    Assert.assertTrue(worker.awaitIdle(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(2, syncs.comments.size());
+    String[] descriptions = syncs.comments.get(1).getDescription().split("\n\n");
+    Assert.assertEquals(GitSyncWorker.MAX_PENDING_COMMENTS + 1, descriptions.length);
+    Assert.assertEquals("change 36", descriptions[0]);
+    Assert.assertEquals("change " + (pending - 1), descriptions[descriptions.length - 2]);
+    Assert.assertEquals("(and 36 earlier changes)", descriptions[descriptions.length - 1]);
+  }
+
+  @Test
+  public void failedSyncIsRetriedWithBackoff() throws Exception {
+    List<Long> attempts = Collections.synchronizedList(new ArrayList<>());
+    List<Comment> comments = Collections.synchronizedList(new ArrayList<>());
+    GitSyncWorker worker =
+        new GitSyncWorker(
+            (domain, comment) -> {
+              attempts.add(System.nanoTime());
+              comments.add(comment);
+              if (attempts.size() < 3) {
+                throw new RuntimeException("push rejected");
+              }
+            },
+            "test",
+            50);
+
+    worker.submit(TestSets.base(), comment("first"));
+    Assert.assertTrue(worker.awaitIdle(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(3, attempts.size());
+    long firstRetry = TimeUnit.NANOSECONDS.toMillis(attempts.get(1) - attempts.get(0));
+    long secondRetry = TimeUnit.NANOSECONDS.toMillis(attempts.get(2) - attempts.get(1));
+    Assert.assertTrue(firstRetry >= 50);
+    Assert.assertTrue(secondRetry >= 100);
+    // the comment of the failed sync is kept for the retry
+    comments.forEach(comment -> Assert.assertEquals("first", comment.getDescription()));
+  }
+}
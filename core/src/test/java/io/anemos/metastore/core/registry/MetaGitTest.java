@@ -0,0 +1,125 @@
+package io.anemos.metastore.core.registry;
+
+import io.anemos.metastore.config.GitGlobalConfig;
+import io.anemos.metastore.config.GitRegistryConfig;
+import io.anemos.metastore.config.RegistryConfig;
+import io.anemos.metastore.core.proto.TestSets;
+import io.anemos.metastore.v1alpha1.RegistryP.SubmitSchemaRequest.Comment;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.EnvironmentVariables;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MetaGitTest {
+
+  @Rule public final EnvironmentVariables environmentVariables = new EnvironmentVariables();
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void before() {
+    environmentVariables.clear("DEBUG");
+  }
+
+  private static RegistryConfig config(String mode, File path, File remote) {
+    RegistryConfig config = new RegistryConfig("test");
+    config.git = new GitRegistryConfig(path.getAbsolutePath());
+    config.git.remote = remote.getAbsolutePath();
+    config.git.mode = mode;
+    return config;
+  }
+
+  private static Comment comment(String description) {
+    return Comment.newBuilder()
+        .setDescription(description)
+        .setName("test")
+        .setEmail("test@example.com")
+        .build();
+  }
+
+  private static List<String> messages(File repo) throws Exception {
+    List<String> messages = new ArrayList<>();
+    try (Git git = Git.open(repo)) {
+      for (RevCommit commit : git.log().call()) {
+        messages.add(commit.getFullMessage());
+      }
+    }
+    return messages;
+  }
+
+  @Test
+  public void localModeKeepsHistory() throws Exception {
+    File bare = new File(folder.getRoot(), "remote.git");
+    File path = new File(folder.getRoot(), "work");
+
+    MetaGit metaGit = new MetaGit(config("local", path, bare), new GitGlobalConfig());
+    metaGit.init();
+    metaGit.sync(TestSets.base(), comment("first"));
+    metaGit.sync(TestSets.baseExtraFile(), comment("second"));
+    Assert.assertTrue(new File(path, "test/v1/extra.proto").exists());
+    metaGit.sync(TestSets.base(), comment("third"));
+    Assert.assertFalse(new File(path, "test/v1/extra.proto").exists());
+    metaGit.sync(TestSets.base(), comment("unchanged"));
+
+    List<String> messages = messages(bare);
+    Assert.assertEquals(3, messages.size());
+    Assert.assertEquals("third", messages.get(0));
+  }
+
+  @Test
+  public void reuseModeKeepsClone() throws Exception {
+    File bare = new File(folder.getRoot(), "remote.git");
+    File path = new File(folder.getRoot(), "work");
+
+    MetaGit metaGit = new MetaGit(config("local", path, bare), new GitGlobalConfig());
+    metaGit.init();
+    metaGit.sync(TestSets.base(), comment("first"));
+
+    File marker = new File(path, ".git/marker");
+    Assert.assertTrue(marker.createNewFile());
+    MetaGit restarted = new MetaGit(config("reuse", path, bare), new GitGlobalConfig());
+    restarted.init();
+    Assert.assertTrue(marker.exists());
+    restarted.sync(TestSets.baseExtraFile(), comment("second"));
+
+    Assert.assertEquals(2, messages(bare).size());
+  }
+
+  @Test
+  public void remoteMovedIsPulled() throws Exception {
+    File bare = new File(folder.getRoot(), "remote.git");
+    File path = new File(folder.getRoot(), "work");
+
+    MetaGit metaGit = new MetaGit(config("local", path, bare), new GitGlobalConfig());
+    metaGit.init();
+    metaGit.sync(TestSets.base(), comment("first"));
+
+    // another writer pushes to the remote in between
+    File other = new File(folder.getRoot(), "other");
+    try (Git git =
+        Git.cloneRepository().setURI(bare.getAbsolutePath()).setDirectory(other).call()) {
+      Assert.assertTrue(new File(other, "README.md").createNewFile());
+      git.add().addFilepattern("README.md").call();
+      git.commit().setMessage("other").setAuthor("other", "other@example.com").call();
+      git.push().call();
+    }
+
+    metaGit.sync(TestSets.baseExtraFile(), comment("second"));
+    Assert.assertTrue(new File(path, "README.md").exists());
+    Assert.assertTrue(new File(path, "test/v1/extra.proto").exists());
+
+    List<String> messages = messages(bare);
+    Assert.assertEquals(3, messages.size());
+    Assert.assertEquals("second", messages.get(0));
+    Assert.assertEquals("other", messages.get(1));
+  }
+}
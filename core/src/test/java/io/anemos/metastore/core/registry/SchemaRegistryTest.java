@@ -0,0 +1,220 @@
+package io.anemos.metastore.core.registry;
+
+import com.google.protobuf.ByteString;
+import io.anemos.metastore.config.MetaStoreConfig;
+import io.anemos.metastore.config.ProviderConfig;
+import io.anemos.metastore.config.RegistryConfig;
+import io.anemos.metastore.core.proto.TestSets;
+import io.anemos.metastore.provider.RegistryInfo;
+import io.anemos.metastore.provider.StorageProvider;
+import io.anemos.metastore.putils.ProtoDomain;
+import io.anemos.metastore.v1alpha1.RegistryP.SubmitSchemaRequest.Comment;
+import io.anemos.metastore.v1alpha1.Report;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SchemaRegistryTest {
+
+  /**
+   * Versioned storage in memory, a write can be made to fail or to block. Storages with the same
+   * store parameter share their versions, as if the registry was restarted.
+   */
+  public static class TestStorage implements StorageProvider {
+    static final Map<String, ConcurrentSkipListMap<Long, ByteString>> STORES =
+        new ConcurrentHashMap<>();
+    ConcurrentSkipListMap<Long, ByteString> versions;
+    volatile boolean failWrites;
+    volatile CountDownLatch writeStarted;
+    volatile CountDownLatch releaseWrite;
+
+    @Override
+    public void initForStorage(RegistryInfo registryInfo, Map<String, String> config) {
+      String store = config.get("store");
+      versions =
+          store == null
+              ? new ConcurrentSkipListMap<>()
+              : STORES.computeIfAbsent(store, k -> new ConcurrentSkipListMap<>());
+    }
+
+    @Override
+    public ByteString read() {
+      return versions.isEmpty() ? null : versions.get(getLatestVersion());
+    }
+
+    @Override
+    public void write(ByteString payload) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isVersioned() {
+      return true;
+    }
+
+    @Override
+    public void write(long version, ByteString payload) {
+      CountDownLatch started = writeStarted;
+      CountDownLatch release = releaseWrite;
+      if (started != null) {
+        writeStarted = null;
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      if (failWrites) {
+        throw new RuntimeException("storage unavailable");
+      }
+      versions.put(version, payload);
+    }
+
+    @Override
+    public ByteString read(long version) {
+      return versions.get(version);
+    }
+
+    @Override
+    public long getLatestVersion() {
+      return versions.isEmpty() ? 0 : versions.lastKey();
+    }
+  }
+
+  private static AbstractRegistry registry(ProviderConfig.Parameters... parameters)
+      throws Exception {
+    MetaStoreConfig config = new MetaStoreConfig();
+    config.storage = new ProviderConfig();
+    config.storage.providerClass = TestStorage.class.getName();
+    config.storage.parameters = parameters;
+    config.registries = new RegistryConfig[] {new RegistryConfig("default")};
+    return new Registries(config).get("default");
+  }
+
+  private static TestStorage storage(AbstractRegistry registry) {
+    return (TestStorage) registry.storageProvider;
+  }
+
+  private static CompletableFuture<CommitPipeline.Commit> submit(
+      AbstractRegistry registry, ProtoDomain domain) {
+    return registry.submit(
+        0,
+        Comment.newBuilder().setDescription("test").build(),
+        base -> new CommitPipeline.Commit(domain, Report.getDefaultInstance()));
+  }
+
+  @Test
+  public void versionsArePublishedInOrder() throws Exception {
+    AbstractRegistry registry = registry();
+    Assert.assertEquals(1, registry.snapshot().getVersion());
+    RegistrySnapshot empty = registry.snapshot();
+
+    CommitPipeline.Commit first = submit(registry, TestSets.base()).get(10, TimeUnit.SECONDS);
+    CommitPipeline.Commit second =
+        submit(registry, TestSets.baseExtraFile()).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(2, first.getVersion());
+    Assert.assertEquals(3, second.getVersion());
+    Assert.assertEquals(3, registry.snapshot().getVersion());
+    Assert.assertEquals(TestSets.baseExtraFile(), registry.get());
+
+    // a snapshot taken earlier is not affected by later commits
+    Assert.assertEquals(1, empty.getVersion());
+    Assert.assertEquals(ProtoDomain.empty(), empty.getDomain());
+    Assert.assertEquals(TestSets.base(), registry.snapshotAt(2).getDomain());
+    Assert.assertEquals(
+        TestSets.base(), ProtoDomain.buildFrom(storage(registry).read(first.getVersion())));
+  }
+
+  @Test
+  public void failedWriteIsNotPublished() throws Exception {
+    AbstractRegistry registry = registry();
+    List<RegistrySnapshot> published = Collections.synchronizedList(new ArrayList<>());
+    registry.addSnapshotListener((r, snapshot) -> published.add(snapshot));
+    storage(registry).failWrites = true;
+
+    try {
+      submit(registry, TestSets.base()).get(10, TimeUnit.SECONDS);
+      Assert.fail("the commit should fail");
+    } catch (ExecutionException e) {
+      Assert.assertEquals("storage unavailable", e.getCause().getMessage());
+    }
+    Assert.assertEquals(1, registry.snapshot().getVersion());
+    Assert.assertEquals(ProtoDomain.empty(), registry.get());
+    Assert.assertTrue(published.isEmpty());
+
+    storage(registry).failWrites = false;
+    CommitPipeline.Commit commit = submit(registry, TestSets.base()).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(2, commit.getVersion());
+    Assert.assertEquals(1, published.size());
+  }
+
+  @Test
+  public void failingListenerDoesNotFailTheCommit() throws Exception {
+    AbstractRegistry registry = registry();
+    List<RegistrySnapshot> published = Collections.synchronizedList(new ArrayList<>());
+    registry.addSnapshotListener(
+        (r, snapshot) -> {
+          throw new RuntimeException("listener failed");
+        });
+    registry.addSnapshotListener((r, snapshot) -> published.add(snapshot));
+
+    CommitPipeline.Commit commit = submit(registry, TestSets.base()).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(2, commit.getVersion());
+    Assert.assertEquals(1, published.size());
+    Assert.assertEquals(2, published.get(0).getVersion());
+  }
+
+  @Test
+  public void queuedCommitsAreBatched() throws Exception {
+    AbstractRegistry registry = registry();
+    TestStorage storage = storage(registry);
+    CountDownLatch started = new CountDownLatch(1);
+    storage.releaseWrite = new CountDownLatch(1);
+    storage.writeStarted = started;
+
+    CompletableFuture<CommitPipeline.Commit> first = submit(registry, TestSets.base());
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+    CompletableFuture<CommitPipeline.Commit> second = submit(registry, TestSets.baseExtraFile());
+    CompletableFuture<CommitPipeline.Commit> third = submit(registry, TestSets.baseRemoveString());
+    storage.releaseWrite.countDown();
+
+    Assert.assertEquals(2, first.get(10, TimeUnit.SECONDS).getVersion());
+    Assert.assertEquals(3, second.get(10, TimeUnit.SECONDS).getVersion());
+    Assert.assertEquals(3, third.get(10, TimeUnit.SECONDS).getVersion());
+    // the batch is stored once, as the state after its last commit
+    Assert.assertEquals(3, storage.getLatestVersion());
+    Assert.assertEquals(3, storage.versions.size());
+    Assert.assertEquals(TestSets.baseRemoveString(), ProtoDomain.buildFrom(storage.read(3)));
+    Assert.assertEquals(TestSets.baseRemoveString(), registry.get());
+  }
+
+  @Test
+  public void restartKeepsTheLatestVersion() throws Exception {
+    AbstractRegistry registry = registry(new ProviderConfig.Parameters("store", "restart"));
+    long version = submit(registry, TestSets.base()).get(10, TimeUnit.SECONDS).getVersion();
+    Assert.assertEquals(2, version);
+
+    // the stored state is the latest version, it's published as is without writing it again
+    AbstractRegistry restarted = registry(new ProviderConfig.Parameters("store", "restart"));
+    Assert.assertEquals(version, restarted.snapshot().getVersion());
+    Assert.assertEquals(TestSets.base(), restarted.get());
+    Assert.assertEquals(2, storage(restarted).versions.size());
+
+    CommitPipeline.Commit commit =
+        submit(restarted, TestSets.baseExtraFile()).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(version + 1, commit.getVersion());
+  }
+}
@@ -0,0 +1,83 @@
+package io.anemos.metastore.putils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Read only map from full name to descriptor, kept as two arrays sorted by name and looked up by
+ * binary search. It costs two references per entry, a HashMap costs an entry object and a table
+ * slot per entry.
+ */
+final class CompactIndex<T> {
+  private final String[] names;
+  private final Object[] values;
+
+  CompactIndex(Map<String, T> map) {
+    names = map.keySet().toArray(new String[0]);
+    Arrays.sort(names);
+    values = new Object[names.length];
+    for (int i = 0; i < names.length; i++) {
+      values[i] = map.get(names[i]);
+    }
+  }
+
+  private CompactIndex(String[] names, Object[] values) {
+    this.names = names;
+    this.values = values;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  T get(String name) {
+    int i = Arrays.binarySearch(names, name);
+    return i >= 0 ? (T) values[i] : null;
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  /** Values sorted by name. */
+  @SuppressWarnings("unchecked")
+  List<T> values() {
+    return (List<T>) Collections.unmodifiableList(Arrays.asList(values));
+  }
+
+  /**
+   * Index without the removed names and with the added entries, an added name replaces the entry of
+   * the same name. Only the added names are sorted, they are merged with the names of this index in
+   * a single pass.
+   */
+  CompactIndex<T> merge(Set<String> removed, Map<String, T> added) {
+    if (removed.isEmpty() && added.isEmpty()) {
+      return this;
+    }
+    String[] addedNames = added.keySet().toArray(new String[0]);
+    Arrays.sort(addedNames);
+    String[] mergedNames = new String[names.length + addedNames.length];
+    Object[] mergedValues = new Object[mergedNames.length];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < names.length || j < addedNames.length) {
+      if (j == addedNames.length || (i < names.length && names[i].compareTo(addedNames[j]) < 0)) {
+        if (!removed.contains(names[i]) && !added.containsKey(names[i])) {
+          mergedNames[size] = names[i];
+          mergedValues[size] = values[i];
+          size++;
+        }
+        i++;
+      } else {
+        mergedNames[size] = addedNames[j];
+        mergedValues[size] = added.get(addedNames[j]);
+        size++;
+        j++;
+      }
+    }
+    return new CompactIndex<>(Arrays.copyOf(mergedNames, size), Arrays.copyOf(mergedValues, size));
+  }
+}
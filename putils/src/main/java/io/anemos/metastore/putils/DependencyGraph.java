@@ -0,0 +1,122 @@
+package io.anemos.metastore.putils;
+
+import com.google.protobuf.Descriptors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Import graph of the files in a ProtoDomain, in both directions. The graph is built once per
+ * domain, transitive closures are computed on first use and memoized.
+ *
+ * <p>Files imported by the domain but not part of it (the well known google/protobuf files) are
+ * part of the graph as well.
+ */
+public class DependencyGraph {
+  private final Map<String, Descriptors.FileDescriptor> files = new HashMap<>();
+  private final Map<String, List<String>> imports = new HashMap<>();
+  private final Map<String, List<String>> importers = new HashMap<>();
+  private final List<String> topologicalOrder;
+
+  private final Map<String, Set<String>> importClosures = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> importerClosures = new ConcurrentHashMap<>();
+
+  DependencyGraph(Collection<Descriptors.FileDescriptor> fileDescriptors) {
+    fileDescriptors.forEach(this::visit);
+    List<String> order = new ArrayList<>(files.size());
+    Set<String> visited = new HashSet<>();
+    new TreeSet<>(files.keySet()).forEach(fileName -> sort(fileName, visited, order));
+    topologicalOrder = Collections.unmodifiableList(order);
+  }
+
+  private void visit(Descriptors.FileDescriptor fd) {
+    if (files.containsKey(fd.getName())) {
+      return;
+    }
+    files.put(fd.getName(), fd);
+    List<String> dependencies = new ArrayList<>();
+    for (Descriptors.FileDescriptor dependency : fd.getDependencies()) {
+      dependencies.add(dependency.getName());
+      importers.computeIfAbsent(dependency.getName(), k -> new ArrayList<>()).add(fd.getName());
+      visit(dependency);
+    }
+    imports.put(fd.getName(), dependencies);
+  }
+
+  private void sort(String fileName, Set<String> visited, List<String> order) {
+    if (visited.add(fileName)) {
+      imports.get(fileName).forEach(dependency -> sort(dependency, visited, order));
+      order.add(fileName);
+    }
+  }
+
+  Descriptors.FileDescriptor getFileDescriptor(String fileName) {
+    return files.get(fileName);
+  }
+
+  public boolean contains(String fileName) {
+    return files.containsKey(fileName);
+  }
+
+  /** Files directly imported by the given file. */
+  public List<String> getImports(String fileName) {
+    return Collections.unmodifiableList(imports.getOrDefault(fileName, Collections.emptyList()));
+  }
+
+  /** Files directly importing the given file. */
+  public List<String> getImporters(String fileName) {
+    return Collections.unmodifiableList(importers.getOrDefault(fileName, Collections.emptyList()));
+  }
+
+  /** All files of the graph, every file comes after the files it imports. */
+  public List<String> getTopologicalOrder() {
+    return topologicalOrder;
+  }
+
+  /** The given file and all the files it imports, directly or not. */
+  public Set<String> getImportClosure(String fileName) {
+    return closure(fileName, imports, importClosures);
+  }
+
+  /** The given file and all the files importing it, directly or not. */
+  public Set<String> getImporterClosure(String fileName) {
+    return closure(fileName, importers, importerClosures);
+  }
+
+  public Set<String> getImportClosure(Collection<String> fileNames) {
+    Set<String> result = new HashSet<>();
+    fileNames.forEach(fileName -> result.addAll(getImportClosure(fileName)));
+    return result;
+  }
+
+  public Set<String> getImporterClosure(Collection<String> fileNames) {
+    Set<String> result = new HashSet<>();
+    fileNames.forEach(fileName -> result.addAll(getImporterClosure(fileName)));
+    return result;
+  }
+
+  private Set<String> closure(
+      String fileName, Map<String, List<String>> edges, Map<String, Set<String>> memo) {
+    if (!files.containsKey(fileName)) {
+      return Collections.singleton(fileName);
+    }
+    Set<String> closure = memo.get(fileName);
+    if (closure == null) {
+      Set<String> result = new HashSet<>();
+      result.add(fileName);
+      for (String next : edges.getOrDefault(fileName, Collections.emptyList())) {
+        result.addAll(closure(next, edges, memo));
+      }
+      closure = Collections.unmodifiableSet(result);
+      memo.put(fileName, closure);
+    }
+    return closure;
+  }
+}
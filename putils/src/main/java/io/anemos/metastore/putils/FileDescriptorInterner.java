@@ -0,0 +1,60 @@
+package io.anemos.metastore.putils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.protobuf.Descriptors;
+import java.util.List;
+
+/**
+ * Shares FileDescriptors between ProtoDomains. A FileDescriptor is keyed by the digest of its file
+ * and of all the files it imports, so two domains containing the same file with the same imports
+ * get the same FileDescriptor, and through it the same FileDescriptorProto and descriptors.
+ *
+ * <p>Values are weakly referenced, a FileDescriptor is dropped once no domain uses it anymore.
+ */
+final class FileDescriptorInterner {
+  private static final Cache<HashCode, Descriptors.FileDescriptor> FILES =
+      CacheBuilder.newBuilder().weakValues().build();
+
+  private FileDescriptorInterner() {}
+
+  /**
+   * Returns the shared FileDescriptor for the key, or null if there is none or if it was built on
+   * other dependencies than the given ones.
+   */
+  static Descriptors.FileDescriptor get(
+      HashCode key, List<Descriptors.FileDescriptor> dependencies) {
+    Descriptors.FileDescriptor fd = FILES.getIfPresent(key);
+    if (fd == null || !sameDependencies(fd, dependencies)) {
+      return null;
+    }
+    return fd;
+  }
+
+  /**
+   * Shares a newly built FileDescriptor. Returns the FileDescriptor already shared for the key if
+   * there is a compatible one, the given one otherwise.
+   */
+  static Descriptors.FileDescriptor intern(HashCode key, Descriptors.FileDescriptor fd) {
+    Descriptors.FileDescriptor existing = FILES.asMap().putIfAbsent(key, fd);
+    if (existing == null || !sameDependencies(existing, fd.getDependencies())) {
+      return fd;
+    }
+    return existing;
+  }
+
+  private static boolean sameDependencies(
+      Descriptors.FileDescriptor fd, List<Descriptors.FileDescriptor> dependencies) {
+    List<Descriptors.FileDescriptor> actual = fd.getDependencies();
+    if (actual.size() != dependencies.size()) {
+      return false;
+    }
+    for (int i = 0; i < actual.size(); i++) {
+      if (actual.get(i) != dependencies.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,122 @@
+package io.anemos.metastore.putils;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Splits a serialized FileDescriptorSet into the serialized files and joins them again, at the
+ * wire level. Files are neither parsed nor copied, only their name is read.
+ */
+public final class FileDescriptorSets {
+  static final int FILE_TAG =
+      DescriptorProtos.FileDescriptorSet.FILE_FIELD_NUMBER << 3
+          | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int NAME_TAG =
+      DescriptorProtos.FileDescriptorProto.NAME_FIELD_NUMBER << 3
+          | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+  private FileDescriptorSets() {}
+
+  /** Serialized files by file name, in the order of the set. */
+  public static Map<String, ByteString> split(ByteString set) throws IOException {
+    Map<String, ByteString> files = new LinkedHashMap<>();
+    CodedInputStream input = set.newCodedInput();
+    input.enableAliasing(true);
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        break;
+      }
+      if (tag == FILE_TAG) {
+        ByteString file = input.readBytes();
+        files.put(name(file), file);
+      } else if (!input.skipField(tag)) {
+        break;
+      }
+    }
+    return files;
+  }
+
+  private static String name(ByteString file) throws IOException {
+    CodedInputStream input = file.newCodedInput();
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        throw new InvalidProtocolBufferException("FileDescriptorProto without name");
+      }
+      if (tag == NAME_TAG) {
+        return input.readString();
+      }
+      if (!input.skipField(tag)) {
+        throw new InvalidProtocolBufferException("FileDescriptorProto without name");
+      }
+    }
+  }
+
+  /**
+   * Digest of the serialized files, the same as {@link ProtoDomain#getDigest()} of a domain built
+   * from them. The files are hashed, not parsed. Well known files are left out like the domain
+   * does.
+   */
+  public static HashCode digest(Map<String, ByteString> files) {
+    SortedMap<String, HashCode> fileDigests = new TreeMap<>();
+    files.forEach(
+        (fileName, file) -> {
+          if (!fileName.startsWith("google/protobuf")) {
+            fileDigests.put(fileName, Hashing.sha256().hashBytes(file.asReadOnlyByteBuffer()));
+          }
+        });
+    return digestOf(fileDigests);
+  }
+
+  /** Digest of a domain, over the file names and file digests sorted by file name. */
+  static HashCode digestOf(SortedMap<String, HashCode> fileDigests) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    fileDigests.forEach(
+        (fileName, fileDigest) -> {
+          hasher.putString(fileName, StandardCharsets.UTF_8);
+          hasher.putBytes(fileDigest.asBytes());
+        });
+    return hasher.hash();
+  }
+
+  /** Serialized FileDescriptorSet of the files, the files themselves are not copied. */
+  public static ByteString join(Collection<ByteString> files) {
+    List<ByteString> parts = new ArrayList<>(files.size() * 2);
+    for (ByteString file : files) {
+      int headerSize =
+          CodedOutputStream.computeUInt32SizeNoTag(FILE_TAG)
+              + CodedOutputStream.computeUInt32SizeNoTag(file.size());
+      byte[] header = new byte[headerSize];
+      try {
+        CodedOutputStream output = CodedOutputStream.newInstance(header);
+        output.writeUInt32NoTag(FILE_TAG);
+        output.writeUInt32NoTag(file.size());
+        output.checkNoSpaceLeft();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      parts.add(UnsafeByteOperations.unsafeWrap(header));
+      parts.add(file);
+    }
+    return ByteString.copyFrom(parts);
+  }
+}
@@ -1,8 +1,13 @@
 package io.anemos.metastore.putils;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.Any;
 import com.google.protobuf.Api;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.Duration;
@@ -17,6 +22,7 @@ import com.google.protobuf.Struct;
 import com.google.protobuf.Timestamp;
 import com.google.protobuf.Type;
 import com.google.protobuf.UnknownFieldSet;
+import com.google.protobuf.UnsafeByteOperations;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -27,15 +33,27 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -47,25 +65,132 @@ import javax.annotation.Nullable;
  */
 public class ProtoDomain implements Serializable {
   public static final long serialVersionUID = 1L;
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 256;
+  // "MSN1", first bytes of a snapshot
+  private static final int SNAPSHOT_MAGIC = 0x314e534d;
+  private static final int SNAPSHOT_VERSION = 1;
+  // SHA-256 digests, written as a length and the bytes
+  private static final int DIGEST_SIZE = 32;
+  private static final int DIGEST_FIELD_SIZE = DIGEST_SIZE + 1;
   private transient DescriptorProtos.FileDescriptorSet fileDescriptorSet;
-  private transient int hashCode;
+  // Serialized FileDescriptorProto and its SHA-256 per file name. Bytes the domain was built from
+  // are kept as is, other files are encoded once on first use.
+  private transient Map<String, ByteString> fileBytes = new ConcurrentHashMap<>();
+  private transient Map<String, HashCode> fileDigests = new ConcurrentHashMap<>();
+  private transient Lazy<HashCode> digest;
+  private transient Lazy<ByteString> encoded;
 
   private transient Map<String, Descriptors.FileDescriptor> fileDescriptorMap;
 
-  private transient Map<String, Descriptors.Descriptor> descriptorMap;
-  private transient Map<String, Descriptors.ServiceDescriptor> serviceMap;
-  private transient Map<String, Descriptors.EnumDescriptor> enumMap;
+  // Indexes are built on first access, short lived domains often never need them.
+  private transient Lazy<NameIndex> nameIndex;
+  // Files per package, sorted so a package prefix maps to a contiguous range.
+  private transient Lazy<NavigableMap<String, List<Descriptors.FileDescriptor>>> packageMap;
+  private transient Lazy<DependencyGraph> dependencyGraph;
 
-  private transient OptionsCatalog optionsCatalog;
+  private transient Lazy<OptionsCatalog> optionsCatalog;
 
   ProtoDomain() {
     this(DescriptorProtos.FileDescriptorSet.newBuilder().build());
   }
 
   private ProtoDomain(DescriptorProtos.FileDescriptorSet fileDescriptorSet) {
+    this(fileDescriptorSet, Collections.emptyMap(), Collections.emptyMap(), BuildOptions.DEFAULT);
+  }
+
+  /**
+   * @param encodedFiles serialized FileDescriptorProto per file name, as received
+   * @param digests digest of the encoded files, if known already
+   */
+  private ProtoDomain(
+      DescriptorProtos.FileDescriptorSet fileDescriptorSet,
+      Map<String, ByteString> encodedFiles,
+      Map<String, HashCode> digests,
+      BuildOptions options) {
     this.fileDescriptorSet = fileDescriptorSet;
-    hashCode = java.util.Arrays.hashCode(this.fileDescriptorSet.toByteArray());
-    crosswire();
+    fileBytes.putAll(encodedFiles);
+    fileDigests.putAll(digests);
+    crosswire(options);
+  }
+
+  /**
+   * Incremental constructor, reuses the FileDescriptors of the base domain that don't depend on
+   * any of the changed files. Only the changed files and the files importing them (transitively)
+   * are crosswired again.
+   */
+  private ProtoDomain(
+      ProtoDomain base,
+      Map<String, DescriptorProtos.FileDescriptorProto> protoMap,
+      Set<String> changed,
+      BuildOptions options) {
+    DescriptorProtos.FileDescriptorSet.Builder setBuilder =
+        DescriptorProtos.FileDescriptorSet.newBuilder();
+    protoMap.values().forEach(setBuilder::addFile);
+    this.fileDescriptorSet = setBuilder.build();
+
+    Set<String> affected = base.dependencyGraph.get().getImporterClosure(changed);
+    Map<String, Descriptors.FileDescriptor> outMap = new HashMap<>();
+    ExtensionRegistry extensionRegistry = ExtensionRegistry.newInstance();
+    base.fileDescriptorMap.forEach(
+        (fileName, fd) -> {
+          if (!affected.contains(fileName)) {
+            outMap.put(fileName, fd);
+            registerExtensions(fd, extensionRegistry);
+            // reused files keep their encoding and digest
+            ByteString bytes = base.fileBytes.get(fileName);
+            if (bytes != null) {
+              fileBytes.put(fileName, bytes);
+            }
+            HashCode fileDigest = base.fileDigests.get(fileName);
+            if (fileDigest != null) {
+              fileDigests.put(fileName, fileDigest);
+            }
+          }
+        });
+
+    HashMap<String, DescriptorProtos.FileDescriptorProto> map = new HashMap<>();
+    protoMap.values().stream()
+        .filter(fdp -> !fdp.getName().startsWith("google/protobuf"))
+        .forEach(fdp -> map.put(fdp.getName(), fdp));
+    convertToFileDescriptors(map, outMap, extensionRegistry, options);
+    // drop the well known files that are no longer imported
+    Set<String> imported = new HashSet<>();
+    map.keySet()
+        .forEach(
+            fileName ->
+                outMap.get(fileName).getDependencies().forEach(fd -> imported.add(fd.getName())));
+    outMap
+        .keySet()
+        .removeIf(fileName -> !map.containsKey(fileName) && !imported.contains(fileName));
+    fileDescriptorMap = outMap;
+
+    index();
+    // patch the name index of the base if it was built, instead of indexing all files again
+    NameIndex baseIndex = base.nameIndex.getIfBuilt();
+    if (baseIndex != null) {
+      List<Descriptors.FileDescriptor> removed = new ArrayList<>();
+      base.fileDescriptorMap.forEach(
+          (fileName, fd) -> {
+            if (outMap.get(fileName) != fd) {
+              removed.add(fd);
+            }
+          });
+      List<Descriptors.FileDescriptor> added = new ArrayList<>();
+      outMap.forEach(
+          (fileName, fd) -> {
+            if (base.fileDescriptorMap.get(fileName) != fd) {
+              added.add(fd);
+            }
+          });
+      nameIndex =
+          new Lazy<>(
+              () -> {
+                NameIndex.Builder index = new NameIndex.Builder(baseIndex);
+                removed.forEach(index::remove);
+                added.forEach(index::add);
+                return index.build();
+              });
+    }
   }
 
   private static Map<String, DescriptorProtos.FileDescriptorProto> extractProtoMap(
@@ -76,92 +201,266 @@ public class ProtoDomain implements Serializable {
   }
 
   @Nullable
-  private static Descriptors.FileDescriptor convertToFileDescriptorMap(
+  private static Descriptors.FileDescriptor wellKnownFileDescriptor(String name) {
+    Descriptors.FileDescriptor fd;
+    switch (name) {
+      case "google/protobuf/descriptor.proto":
+        fd = DescriptorProtos.FieldOptions.getDescriptor().getFile();
+        break;
+      case "google/protobuf/wrappers.proto":
+        fd = Int32Value.getDescriptor().getFile();
+        break;
+      case "google/protobuf/timestamp.proto":
+        fd = Timestamp.getDescriptor().getFile();
+        break;
+      case "google/protobuf/duration.proto":
+        fd = Duration.getDescriptor().getFile();
+        break;
+      case "google/protobuf/any.proto":
+        fd = Any.getDescriptor().getFile();
+        break;
+      case "google/protobuf/api.proto":
+        fd = Api.getDescriptor().getFile();
+        break;
+      case "google/protobuf/empty.proto":
+        fd = Empty.getDescriptor().getFile();
+        break;
+      case "google/protobuf/field_mask.proto":
+        fd = FieldMask.getDescriptor().getFile();
+        break;
+      case "google/protobuf/source_context.proto":
+        fd = SourceContext.getDescriptor().getFile();
+        break;
+      case "google/protobuf/struct.proto":
+        fd = Struct.getDescriptor().getFile();
+        break;
+      case "google/protobuf/type.proto":
+        fd = Type.getDescriptor().getFile();
+        break;
+      default:
+        fd = null;
+    }
+    return fd;
+  }
+
+  @Nullable
+  private Descriptors.FileDescriptor convertToFileDescriptorMap(
       String name,
       Map<String, DescriptorProtos.FileDescriptorProto> inMap,
       Map<String, Descriptors.FileDescriptor> outMap,
-      ExtensionRegistry registry) {
+      Map<String, HashCode> keys,
+      ExtensionRegistry registry,
+      boolean interning) {
     if (outMap.containsKey(name)) {
       return outMap.get(name);
     }
     DescriptorProtos.FileDescriptorProto fileDescriptorProto = inMap.get(name);
     if (fileDescriptorProto == null) {
-      Descriptors.FileDescriptor fd;
-      switch (name) {
-        case "google/protobuf/descriptor.proto":
-          fd = DescriptorProtos.FieldOptions.getDescriptor().getFile();
-          break;
-        case "google/protobuf/wrappers.proto":
-          fd = Int32Value.getDescriptor().getFile();
-          break;
-        case "google/protobuf/timestamp.proto":
-          fd = Timestamp.getDescriptor().getFile();
-          break;
-        case "google/protobuf/duration.proto":
-          fd = Duration.getDescriptor().getFile();
-          break;
-        case "google/protobuf/any.proto":
-          fd = Any.getDescriptor().getFile();
-          break;
-        case "google/protobuf/api.proto":
-          fd = Api.getDescriptor().getFile();
-          break;
-        case "google/protobuf/empty.proto":
-          fd = Empty.getDescriptor().getFile();
-          break;
-        case "google/protobuf/field_mask.proto":
-          fd = FieldMask.getDescriptor().getFile();
-          break;
-        case "google/protobuf/source_context.proto":
-          fd = SourceContext.getDescriptor().getFile();
-          break;
-        case "google/protobuf/struct.proto":
-          fd = Struct.getDescriptor().getFile();
-          break;
-        case "google/protobuf/type.proto":
-          fd = Type.getDescriptor().getFile();
-          break;
-        default:
-          return null;
+      Descriptors.FileDescriptor fd = wellKnownFileDescriptor(name);
+      if (fd == null) {
+        return null;
       }
       outMap.put(name, fd);
       return fd;
     } else {
-      List<Descriptors.FileDescriptor> dependencies = new ArrayList<>();
-      if (fileDescriptorProto.getDependencyCount() > 0) {
-        fileDescriptorProto
-            .getDependencyList()
-            .forEach(
-                dependencyName -> {
-                  Descriptors.FileDescriptor fileDescriptor =
-                      convertToFileDescriptorMap(dependencyName, inMap, outMap, registry);
-                  if (fileDescriptor != null) {
-                    dependencies.add(fileDescriptor);
-                  }
-                });
-      }
-      try {
-        Descriptors.FileDescriptor fileDescriptor =
-            Descriptors.FileDescriptor.buildFrom(
-                fileDescriptorProto, dependencies.toArray(new Descriptors.FileDescriptor[0]));
-        fileDescriptor
-            .getExtensions()
-            .forEach(
-                extension -> {
-                  if (extension.getType() == Descriptors.FieldDescriptor.Type.MESSAGE) {
-                    registry.add(
-                        extension, DynamicMessage.newBuilder(extension.getMessageType()).build());
-                  } else {
-                    registry.add(extension);
-                  }
-                });
+      fileDescriptorProto
+          .getDependencyList()
+          .forEach(
+              dependencyName ->
+                  convertToFileDescriptorMap(
+                      dependencyName, inMap, outMap, keys, registry, interning));
+      List<Descriptors.FileDescriptor> dependencies = dependencies(fileDescriptorProto, outMap);
+      HashCode key = interning ? closureKey(name, inMap, keys) : null;
+      Descriptors.FileDescriptor fileDescriptor =
+          interning ? FileDescriptorInterner.get(key, dependencies) : null;
+      if (fileDescriptor != null) {
+        registerExtensions(fileDescriptor, registry);
+      } else {
+        fileDescriptor = buildFileDescriptor(fileDescriptorProto, dependencies);
+        registerExtensions(fileDescriptor, registry);
         Descriptors.FileDescriptor.internalUpdateFileDescriptor(fileDescriptor, registry);
-        outMap.put(name, fileDescriptor);
-        return fileDescriptor;
-      } catch (Descriptors.DescriptorValidationException e) {
-        throw new RuntimeException(e);
+        if (interning) {
+          fileDescriptor = FileDescriptorInterner.intern(key, fileDescriptor);
+        }
+      }
+      outMap.put(name, fileDescriptor);
+      return fileDescriptor;
+    }
+  }
+
+  /**
+   * Builds the FileDescriptors of all the files in inMap that are not in outMap yet. Files that are
+   * shared by another domain, with the same content and the same imports, are taken from the
+   * FileDescriptorInterner instead of being built again.
+   *
+   * <p>Large sets are built level by level over the dependency graph on the common ForkJoinPool: a
+   * level contains the files whose dependencies are all built, its files are built in parallel,
+   * their extensions are registered, then the options of the level are resolved in parallel
+   * against the registry.
+   */
+  private void convertToFileDescriptors(
+      Map<String, DescriptorProtos.FileDescriptorProto> inMap,
+      Map<String, Descriptors.FileDescriptor> outMap,
+      ExtensionRegistry registry,
+      BuildOptions options) {
+    Map<String, HashCode> keys = new HashMap<>();
+    long pending = inMap.keySet().stream().filter(name -> !outMap.containsKey(name)).count();
+    if (pending < options.parallelThreshold || ForkJoinPool.getCommonPoolParallelism() < 2) {
+      inMap.forEach(
+          (fileName, proto) ->
+              convertToFileDescriptorMap(
+                  fileName, inMap, outMap, keys, registry, options.interning));
+      return;
+    }
+
+    inMap.entrySet().parallelStream()
+        .forEach(entry -> fileDigest(entry.getKey(), entry.getValue()));
+    if (options.interning) {
+      inMap.keySet().forEach(fileName -> closureKey(fileName, inMap, keys));
+    }
+    Map<String, Integer> levelOf = new HashMap<>();
+    List<List<DescriptorProtos.FileDescriptorProto>> levels = new ArrayList<>();
+    inMap.keySet().forEach(fileName -> level(fileName, inMap, outMap, levelOf, levels));
+    for (List<DescriptorProtos.FileDescriptorProto> level : levels) {
+      List<DescriptorProtos.FileDescriptorProto> toBuild = new ArrayList<>();
+      for (DescriptorProtos.FileDescriptorProto proto : level) {
+        Descriptors.FileDescriptor fd =
+            options.interning
+                ? FileDescriptorInterner.get(keys.get(proto.getName()), dependencies(proto, outMap))
+                : null;
+        if (fd != null) {
+          outMap.put(fd.getName(), fd);
+          registerExtensions(fd, registry);
+        } else {
+          toBuild.add(proto);
+        }
+      }
+      List<Descriptors.FileDescriptor> built =
+          toBuild.parallelStream()
+              .map(proto -> buildFileDescriptor(proto, dependencies(proto, outMap)))
+              .collect(Collectors.toList());
+      built.forEach(
+          fd -> {
+            outMap.put(fd.getName(), fd);
+            registerExtensions(fd, registry);
+          });
+      built.parallelStream()
+          .forEach(fd -> Descriptors.FileDescriptor.internalUpdateFileDescriptor(fd, registry));
+      if (options.interning) {
+        built.forEach(
+            fd ->
+                outMap.put(
+                    fd.getName(), FileDescriptorInterner.intern(keys.get(fd.getName()), fd)));
+      }
+    }
+  }
+
+  /**
+   * Digest of a file and, recursively, of the files it imports. Two files with the same key build
+   * the same FileDescriptor, so it keys the shared FileDescriptors.
+   */
+  private HashCode closureKey(
+      String fileName,
+      Map<String, DescriptorProtos.FileDescriptorProto> inMap,
+      Map<String, HashCode> keys) {
+    HashCode key = keys.get(fileName);
+    if (key != null) {
+      return key;
+    }
+    Hasher hasher = Hashing.sha256().newHasher();
+    DescriptorProtos.FileDescriptorProto proto = inMap.get(fileName);
+    if (proto == null) {
+      // well known files are compiled in, their name identifies them
+      hasher.putString(fileName, StandardCharsets.UTF_8);
+    } else {
+      hasher.putBytes(fileDigest(fileName, proto).asBytes());
+      for (String dependency : proto.getDependencyList()) {
+        hasher.putBytes(closureKey(dependency, inMap, keys).asBytes());
       }
     }
+    key = hasher.hash();
+    keys.put(fileName, key);
+    return key;
+  }
+
+  private HashCode fileDigest(String fileName, DescriptorProtos.FileDescriptorProto proto) {
+    return fileDigests.computeIfAbsent(
+        fileName,
+        k -> {
+          ByteString bytes = fileBytes.computeIfAbsent(k, n -> proto.toByteString());
+          return Hashing.sha256().hashBytes(bytes.asReadOnlyByteBuffer());
+        });
+  }
+
+  /** Depth of a file that still needs to be built, -1 for files that are already available. */
+  private static int level(
+      String fileName,
+      Map<String, DescriptorProtos.FileDescriptorProto> inMap,
+      Map<String, Descriptors.FileDescriptor> outMap,
+      Map<String, Integer> levelOf,
+      List<List<DescriptorProtos.FileDescriptorProto>> levels) {
+    Integer known = levelOf.get(fileName);
+    if (known != null) {
+      return known;
+    }
+    int level = -1;
+    DescriptorProtos.FileDescriptorProto proto = inMap.get(fileName);
+    if (!outMap.containsKey(fileName)) {
+      if (proto == null) {
+        Descriptors.FileDescriptor fd = wellKnownFileDescriptor(fileName);
+        if (fd != null) {
+          outMap.put(fileName, fd);
+        }
+      } else {
+        for (String dependency : proto.getDependencyList()) {
+          level = Math.max(level, level(dependency, inMap, outMap, levelOf, levels));
+        }
+        level++;
+        while (levels.size() <= level) {
+          levels.add(new ArrayList<>());
+        }
+        levels.get(level).add(proto);
+      }
+    }
+    levelOf.put(fileName, level);
+    return level;
+  }
+
+  private static List<Descriptors.FileDescriptor> dependencies(
+      DescriptorProtos.FileDescriptorProto proto, Map<String, Descriptors.FileDescriptor> outMap) {
+    List<Descriptors.FileDescriptor> dependencies = new ArrayList<>();
+    for (String dependency : proto.getDependencyList()) {
+      Descriptors.FileDescriptor fd = outMap.get(dependency);
+      if (fd != null) {
+        dependencies.add(fd);
+      }
+    }
+    return dependencies;
+  }
+
+  private static Descriptors.FileDescriptor buildFileDescriptor(
+      DescriptorProtos.FileDescriptorProto proto, List<Descriptors.FileDescriptor> dependencies) {
+    try {
+      return Descriptors.FileDescriptor.buildFrom(
+          proto, dependencies.toArray(new Descriptors.FileDescriptor[0]));
+    } catch (Descriptors.DescriptorValidationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void registerExtensions(
+      Descriptors.FileDescriptor fileDescriptor, ExtensionRegistry registry) {
+    fileDescriptor
+        .getExtensions()
+        .forEach(
+            extension -> {
+              if (extension.getType() == Descriptors.FieldDescriptor.Type.MESSAGE) {
+                registry.add(
+                    extension, DynamicMessage.newBuilder(extension.getMessageType()).build());
+              } else {
+                registry.add(extension);
+              }
+            });
   }
 
   private static void visitFileDescriptorTree(Map map, Descriptors.FileDescriptor fileDescriptor) {
@@ -174,7 +473,17 @@ public class ProtoDomain implements Serializable {
 
   public static ProtoDomain buildFrom(Collection<ByteString> fileDescriptorProtoList)
       throws InvalidProtocolBufferException {
-    return buildFrom(Convert.convertFileDescriptorByteStringList(fileDescriptorProtoList));
+    DescriptorProtos.FileDescriptorSet.Builder builder =
+        DescriptorProtos.FileDescriptorSet.newBuilder();
+    Map<String, ByteString> encodedFiles = new HashMap<>();
+    for (ByteString bytes : fileDescriptorProtoList) {
+      DescriptorProtos.FileDescriptorProto proto =
+          DescriptorProtos.FileDescriptorProto.parseFrom(bytes);
+      builder.addFile(proto);
+      encodedFiles.put(proto.getName(), bytes);
+    }
+    return new ProtoDomain(
+        builder.build(), encodedFiles, Collections.emptyMap(), BuildOptions.DEFAULT);
   }
 
   public static ProtoDomain buildFrom(Descriptors.Descriptor descriptor) {
@@ -199,19 +508,107 @@ public class ProtoDomain implements Serializable {
   }
 
   public static ProtoDomain buildFrom(InputStream inputStream) throws IOException {
-    return buildFrom(DescriptorProtos.FileDescriptorSet.parseFrom(inputStream));
+    return buildFrom(ByteString.readFrom(inputStream));
   }
 
   public static ProtoDomain buildFrom(File file) throws IOException {
-    return buildFrom(new FileInputStream(file));
+    try (InputStream inputStream = new FileInputStream(file)) {
+      return buildFrom(inputStream);
+    }
   }
 
   public static ProtoDomain buildFrom(byte[] buffer) throws IOException {
-    return buildFrom(DescriptorProtos.FileDescriptorSet.parseFrom(buffer));
+    return buildFrom(ByteString.copyFrom(buffer));
   }
 
   public static ProtoDomain buildFrom(ByteString buffer) throws IOException {
-    return buildFrom(DescriptorProtos.FileDescriptorSet.parseFrom(buffer));
+    Map<String, ByteString> encodedFiles = new HashMap<>();
+    DescriptorProtos.FileDescriptorSet fileDescriptorSet = parse(buffer, encodedFiles);
+    return new ProtoDomain(
+        fileDescriptorSet, encodedFiles, Collections.emptyMap(), BuildOptions.DEFAULT);
+  }
+
+  /**
+   * Restores a domain from a snapshot written by {@link #toSnapshot()}. The files come in
+   * topological order, so they are not sorted again. The bytes of every file are hashed again and
+   * checked against the digest stored next to them, the domain is checked against its digest.
+   */
+  public static ProtoDomain buildFromSnapshot(ByteString snapshot) throws IOException {
+    CodedInputStream input = snapshot.newCodedInput();
+    input.enableAliasing(true);
+    if (input.readFixed32() != SNAPSHOT_MAGIC || input.readUInt32() != SNAPSHOT_VERSION) {
+      throw new InvalidProtocolBufferException("Not a ProtoDomain snapshot");
+    }
+    int count = input.readUInt32();
+    DescriptorProtos.FileDescriptorSet.Builder builder =
+        DescriptorProtos.FileDescriptorSet.newBuilder();
+    Map<String, ByteString> encodedFiles = new HashMap<>();
+    Map<String, HashCode> digests = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      String fileName = input.readString();
+      HashCode stored = HashCode.fromBytes(input.readByteArray());
+      ByteString bytes = input.readBytes();
+      HashCode fileDigest = Hashing.sha256().hashBytes(bytes.asReadOnlyByteBuffer());
+      if (!fileDigest.equals(stored)) {
+        throw new InvalidProtocolBufferException(
+            "ProtoDomain snapshot doesn't match the digest of " + fileName);
+      }
+      builder.addFile(DescriptorProtos.FileDescriptorProto.parseFrom(bytes));
+      encodedFiles.put(fileName, bytes);
+      digests.put(fileName, fileDigest);
+    }
+    HashCode expected = HashCode.fromBytes(input.readByteArray());
+    ProtoDomain domain =
+        new ProtoDomain(builder.build(), encodedFiles, digests, BuildOptions.DEFAULT);
+    if (!expected.equals(domain.getDigest())) {
+      throw new InvalidProtocolBufferException("ProtoDomain snapshot doesn't match its digest");
+    }
+    return domain;
+  }
+
+  /**
+   * The digest of the domain stored at the end of a snapshot written by {@link #toSnapshot()},
+   * without restoring the domain. Null if the bytes are not a snapshot.
+   */
+  @Nullable
+  public static HashCode getSnapshotDigest(ByteString snapshot) {
+    int size = snapshot.size();
+    if (size < 4 + DIGEST_FIELD_SIZE || snapshot.byteAt(size - DIGEST_FIELD_SIZE) != DIGEST_SIZE) {
+      return null;
+    }
+    ByteBuffer magic = snapshot.substring(0, 4).asReadOnlyByteBuffer();
+    if (magic.order(ByteOrder.LITTLE_ENDIAN).getInt() != SNAPSHOT_MAGIC) {
+      return null;
+    }
+    return HashCode.fromBytes(snapshot.substring(size - DIGEST_SIZE).toByteArray());
+  }
+
+  /**
+   * Parses a serialized FileDescriptorSet, keeping the bytes of every file. The file bytes are
+   * slices of the buffer, not copies.
+   */
+  private static DescriptorProtos.FileDescriptorSet parse(
+      ByteString buffer, Map<String, ByteString> encodedFiles) throws IOException {
+    DescriptorProtos.FileDescriptorSet.Builder builder =
+        DescriptorProtos.FileDescriptorSet.newBuilder();
+    CodedInputStream input = buffer.newCodedInput();
+    input.enableAliasing(true);
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        break;
+      }
+      if (tag == FileDescriptorSets.FILE_TAG) {
+        ByteString bytes = input.readBytes();
+        DescriptorProtos.FileDescriptorProto proto =
+            DescriptorProtos.FileDescriptorProto.parseFrom(bytes);
+        builder.addFile(proto);
+        encodedFiles.put(proto.getName(), bytes);
+      } else if (!input.skipField(tag)) {
+        break;
+      }
+    }
+    return builder.build();
   }
 
   public static ProtoDomain empty() {
@@ -219,63 +616,69 @@ public class ProtoDomain implements Serializable {
   }
 
   public Builder toBuilder() {
-    return new Builder(this.fileDescriptorMap);
+    return new Builder(this);
   }
 
   public static Builder builder() {
     return new Builder(new HashMap<>());
   }
 
-  private void crosswire() {
-    HashMap<String, DescriptorProtos.FileDescriptorProto> map = new HashMap<>();
+  private void crosswire(BuildOptions options) {
+    // keeps the order of the set, a set in topological order is built without recursion
+    Map<String, DescriptorProtos.FileDescriptorProto> map = new LinkedHashMap<>();
     fileDescriptorSet.getFileList().stream()
         .filter(fdp -> !fdp.getName().startsWith("google/protobuf"))
         .forEach(fdp -> map.put(fdp.getName(), fdp));
 
     Map<String, Descriptors.FileDescriptor> outMap = new HashMap<>();
     ExtensionRegistry extensionRegistry = ExtensionRegistry.newInstance();
-    map.forEach(
-        (fileName, proto) -> convertToFileDescriptorMap(fileName, map, outMap, extensionRegistry));
+    convertToFileDescriptors(map, outMap, extensionRegistry, options);
     fileDescriptorMap = outMap;
+    // the well known files are replaced by the ones compiled in, so are their bytes
+    fileBytes.keySet().removeIf(fileName -> !map.containsKey(fileName));
+    fileDigests.keySet().removeIf(fileName -> !map.containsKey(fileName));
+    index();
+  }
 
-    indexOptionsByNumber();
-    indexDescriptorByName();
+  private void index() {
+    Map<String, Descriptors.FileDescriptor> files = fileDescriptorMap;
+    nameIndex =
+        new Lazy<>(
+            () -> {
+              NameIndex.Builder index = new NameIndex.Builder();
+              files.values().forEach(index::add);
+              return index.build();
+            });
+    packageMap =
+        new Lazy<>(
+            () -> {
+              NavigableMap<String, List<Descriptors.FileDescriptor>> map = new TreeMap<>();
+              files.forEach(
+                  (fileName, fd) ->
+                      map.computeIfAbsent(fd.getPackage(), k -> new ArrayList<>()).add(fd));
+              return map;
+            });
+    dependencyGraph = new Lazy<>(() -> new DependencyGraph(files.values()));
+    optionsCatalog = new Lazy<>(() -> new OptionsCatalog(files));
+    digest = new Lazy<>(() -> computeDigest(files.keySet()));
+    encoded = new Lazy<>(() -> encode(files.keySet()));
   }
 
-  private void indexDescriptorByName() {
-    descriptorMap = new HashMap<>();
-    fileDescriptorMap.forEach(
-        (k, v) ->
-            v.getMessageTypes()
-                .forEach(
-                    mt -> {
-                      descriptorMap.put(mt.getFullName(), mt);
-                      indexNestedDescriptorByName(mt.getNestedTypes());
-                    }));
-    serviceMap = new HashMap<>();
-    fileDescriptorMap.forEach(
-        (k, v) ->
-            v.getServices()
-                .forEach(
-                    mt -> {
-                      serviceMap.put(mt.getFullName(), mt);
-                    }));
-    enumMap = new HashMap<>();
-    fileDescriptorMap.forEach(
-        (k, v) ->
-            v.getEnumTypes()
-                .forEach(
-                    mt -> {
-                      enumMap.put(mt.getFullName(), mt);
-                    }));
+  private HashCode computeDigest(Set<String> fileNames) {
+    SortedMap<String, HashCode> fileDigests = new TreeMap<>();
+    fileNames.forEach(fileName -> fileDigests.put(fileName, getFileDigest(fileName)));
+    return FileDescriptorSets.digestOf(fileDigests);
   }
 
-  private void indexOptionsByNumber() {
-    optionsCatalog = new OptionsCatalog(fileDescriptorMap);
+  /** Assembles the FileDescriptorSet from the encoded files, without copying them. */
+  private ByteString encode(Set<String> fileNames) {
+    List<ByteString> files = new ArrayList<>(fileNames.size());
+    new TreeSet<>(fileNames).forEach(fileName -> files.add(getFileBytes(fileName)));
+    return FileDescriptorSets.join(files);
   }
 
   private void writeObject(ObjectOutputStream oos) throws IOException {
-    byte[] buffer = fileDescriptorSet.toByteArray();
+    byte[] buffer = toByteArray();
     oos.writeInt(buffer.length);
     oos.write(buffer);
   }
@@ -283,9 +686,10 @@ public class ProtoDomain implements Serializable {
   private void readObject(ObjectInputStream ois) throws IOException {
     byte[] buffer = new byte[ois.readInt()];
     ois.readFully(buffer);
-    fileDescriptorSet = DescriptorProtos.FileDescriptorSet.parseFrom(buffer);
-    hashCode = java.util.Arrays.hashCode(buffer);
-    crosswire();
+    fileBytes = new ConcurrentHashMap<>();
+    fileDigests = new ConcurrentHashMap<>();
+    fileDescriptorSet = parse(UnsafeByteOperations.unsafeWrap(buffer), fileBytes);
+    crosswire(BuildOptions.DEFAULT);
   }
 
   public DescriptorProtos.FileDescriptorSet getFileDescriptorSet() {
@@ -297,11 +701,11 @@ public class ProtoDomain implements Serializable {
   }
 
   public Descriptors.Descriptor getDescriptor(String fullName) {
-    return descriptorMap.get(fullName);
+    return nameIndex.get().descriptors.get(fullName);
   }
 
   public Descriptors.FieldDescriptor getFieldOptionById(int id) {
-    return optionsCatalog.fieldOptionMap.get(id);
+    return optionsCatalog.get().fieldOptionMap.get(id);
   }
 
   @Override
@@ -313,12 +717,48 @@ public class ProtoDomain implements Serializable {
       return false;
     }
     ProtoDomain that = (ProtoDomain) o;
-    return hashCode == that.hashCode;
+    return getDigest().equals(that.getDigest());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(hashCode);
+    return getDigest().asInt();
+  }
+
+  /**
+   * SHA-256 content digest of the domain, computed once over the file names and file digests. Two
+   * domains with the same files have the same digest, whatever the order they were built in.
+   */
+  public HashCode getDigest() {
+    return digest.get();
+  }
+
+  /**
+   * Returns the serialized FileDescriptorProto of a file, or null if the file is not part of the
+   * domain. The bytes the domain was built from are returned as is.
+   */
+  @Nullable
+  public ByteString getFileBytes(String fileName) {
+    Descriptors.FileDescriptor fd = fileDescriptorMap.get(fileName);
+    if (fd == null) {
+      return null;
+    }
+    return fileBytes.computeIfAbsent(fileName, k -> fd.toProto().toByteString());
+  }
+
+  /** SHA-256 of the serialized FileDescriptorProto of a file, or null if it's not in the domain. */
+  @Nullable
+  public HashCode getFileDigest(String fileName) {
+    HashCode fileDigest = fileDigests.get(fileName);
+    if (fileDigest == null) {
+      ByteString bytes = getFileBytes(fileName);
+      if (bytes == null) {
+        return null;
+      }
+      fileDigest = Hashing.sha256().hashBytes(bytes.asReadOnlyByteBuffer());
+      fileDigests.put(fileName, fileDigest);
+    }
+    return fileDigest;
   }
 
   public boolean contains(Descriptors.Descriptor descriptor) {
@@ -326,7 +766,7 @@ public class ProtoDomain implements Serializable {
   }
 
   public OptionsCatalog getOptions() {
-    return optionsCatalog;
+    return optionsCatalog.get();
   }
 
   public Descriptors.FileDescriptor getFileDescriptorByFileName(String fileName) {
@@ -334,15 +774,19 @@ public class ProtoDomain implements Serializable {
   }
 
   public List<Descriptors.FileDescriptor> getFileDescriptorsByPackagePrefix(String packagePrefix) {
-    return fileDescriptorMap.values().stream()
-        .filter(fd -> fd.getPackage().startsWith(packagePrefix))
-        .collect(Collectors.toList());
+    List<Descriptors.FileDescriptor> result = new ArrayList<>();
+    for (Map.Entry<String, List<Descriptors.FileDescriptor>> entry :
+        packageMap.get().tailMap(packagePrefix, true).entrySet()) {
+      if (!entry.getKey().startsWith(packagePrefix)) {
+        break;
+      }
+      result.addAll(entry.getValue());
+    }
+    return result;
   }
 
   public List<Descriptors.FileDescriptor> getFileDescriptorsByPackageName(String packageName) {
-    return fileDescriptorMap.values().stream()
-        .filter(fd -> fd.getPackage().equals(packageName))
-        .collect(Collectors.toList());
+    return new ArrayList<>(packageMap.get().getOrDefault(packageName, Collections.emptyList()));
   }
 
   public Set<String> getFileNames() {
@@ -354,9 +798,14 @@ public class ProtoDomain implements Serializable {
   }
 
   public void writeToDirectory(String root) throws IOException {
-    for (Descriptors.FileDescriptor fd : fileDescriptorMap.values()) {
-      String fileName = fd.getFullName();
-      if (!fileName.startsWith("google/protobuf")) {
+    writeToDirectory(root, fileDescriptorMap.keySet());
+  }
+
+  /** Renders only the given files to the directory, names not in the domain are ignored. */
+  public void writeToDirectory(String root, Collection<String> fileNames) throws IOException {
+    for (String fileName : fileNames) {
+      Descriptors.FileDescriptor fd = fileDescriptorMap.get(fileName);
+      if (fd != null && !fileName.startsWith("google/protobuf")) {
         File file = new File(String.format("%s/%s", root, fileName));
         file.getParentFile().mkdirs();
         try (OutputStream out = new FileOutputStream(file)) {
@@ -366,44 +815,58 @@ public class ProtoDomain implements Serializable {
     }
   }
 
-  private void indexNestedDescriptorByName(List<Descriptors.Descriptor> nestedTypes) {
-    nestedTypes.forEach(
-        mt -> {
-          descriptorMap.put(mt.getFullName(), mt);
-          indexNestedDescriptorByName(mt.getNestedTypes());
-        });
-  }
-
   public Descriptors.Descriptor getDescriptorByName(String messageName) {
-    return descriptorMap.get(messageName);
+    return nameIndex.get().descriptors.get(messageName);
   }
 
   public Descriptors.ServiceDescriptor getServiceDescriptorByName(String messageName) {
-    return serviceMap.get(messageName);
+    return nameIndex.get().services.get(messageName);
   }
 
   public void registerOptions() {
     fileDescriptorMap = Convert.registerOptions(fileDescriptorMap);
-    indexDescriptorByName();
-    indexOptionsByNumber();
+    index();
   }
 
   public Descriptors.EnumDescriptor getEnumDescriptorByName(String messageName) {
-    return enumMap.get(messageName);
+    return nameIndex.get().enums.get(messageName);
   }
 
   public byte[] toByteArray() {
-    DescriptorProtos.FileDescriptorSet.Builder builder =
-        DescriptorProtos.FileDescriptorSet.newBuilder();
-    fileDescriptorMap.forEach((name, fd) -> builder.addFile(fd.toProto()));
-    return builder.build().toByteArray();
+    return toByteString().toByteArray();
   }
 
+  /** Serialized FileDescriptorSet of the domain, files sorted by name. Encoded once. */
   public ByteString toByteString() {
-    DescriptorProtos.FileDescriptorSet.Builder builder =
-        DescriptorProtos.FileDescriptorSet.newBuilder();
-    fileDescriptorMap.forEach((name, fd) -> builder.addFile(fd.toProto()));
-    return builder.build().toByteString();
+    return encoded.get();
+  }
+
+  /**
+   * Encodes the domain for a fast restart: the files in topological order, each with its digest
+   * and its serialized FileDescriptorProto, followed by the domain digest.
+   */
+  public ByteString toSnapshot() {
+    List<String> order =
+        dependencyGraph.get().getTopologicalOrder().stream()
+            .filter(fileDescriptorMap::containsKey)
+            .collect(Collectors.toList());
+    ByteString.Output out = ByteString.newOutput();
+    try {
+      CodedOutputStream output = CodedOutputStream.newInstance(out);
+      output.writeFixed32NoTag(SNAPSHOT_MAGIC);
+      output.writeUInt32NoTag(SNAPSHOT_VERSION);
+      output.writeUInt32NoTag(order.size());
+      for (String fileName : order) {
+        output.writeStringNoTag(fileName);
+        output.writeByteArrayNoTag(getFileDigest(fileName).asBytes());
+        output.writeBytesNoTag(getFileBytes(fileName));
+      }
+      output.writeByteArrayNoTag(getDigest().asBytes());
+      output.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteString();
   }
 
   public DescriptorProtos.FileDescriptorSet toFileDescriptorSet() {
@@ -448,21 +911,36 @@ public class ProtoDomain implements Serializable {
 
   public Collection<Descriptors.FileDescriptor> getDependantFileDescriptors(
       Collection<Descriptors.FileDescriptor> in) {
-    boolean changed = false;
+    return toFileDescriptors(in, dependencyGraph.get()::getImportClosure);
+  }
+
+  /** Returns the given files together with all the files of the domain importing them. */
+  public Collection<Descriptors.FileDescriptor> getImportingFileDescriptors(
+      Collection<Descriptors.FileDescriptor> in) {
+    return toFileDescriptors(in, dependencyGraph.get()::getImporterClosure);
+  }
+
+  private Collection<Descriptors.FileDescriptor> toFileDescriptors(
+      Collection<Descriptors.FileDescriptor> in, Function<String, Set<String>> closure) {
+    DependencyGraph graph = dependencyGraph.get();
     Set<Descriptors.FileDescriptor> fds = new HashSet<>(in);
-    for (Descriptors.FileDescriptor fileDescriptor : in) {
-      boolean added = fds.addAll(fileDescriptor.getDependencies());
-      changed = changed || added;
-    }
-    if (changed) {
-      return getDependantFileDescriptors(fds);
+    for (Descriptors.FileDescriptor fd : in) {
+      closure
+          .apply(fd.getName())
+          .forEach(name -> fds.add(graph.getFileDescriptor(name)));
     }
+    fds.remove(null);
     return fds;
   }
 
+  public DependencyGraph getDependencyGraph() {
+    return dependencyGraph.get();
+  }
+
   public Collection<Descriptors.Descriptor> findDescriptorsByOption(String optionName) {
-    Descriptors.FieldDescriptor fieldDescriptor = optionsCatalog.getMessageOptionByName(optionName);
-    return descriptorMap.values().stream()
+    Descriptors.FieldDescriptor fieldDescriptor =
+        optionsCatalog.get().getMessageOptionByName(optionName);
+    return nameIndex.get().descriptors.values().stream()
         .filter(
             descriptor -> {
               DescriptorProtos.MessageOptions options = descriptor.getOptions();
@@ -481,7 +959,8 @@ public class ProtoDomain implements Serializable {
   }
 
   public Collection<Descriptors.FileDescriptor> findFileDescriptorsByOption(String optionName) {
-    Descriptors.FieldDescriptor fieldDescriptor = optionsCatalog.getFileOptionByName(optionName);
+    Descriptors.FieldDescriptor fieldDescriptor =
+        optionsCatalog.get().getFileOptionByName(optionName);
     return fileDescriptorMap.values().stream()
         .filter(
             descriptor -> {
@@ -501,8 +980,9 @@ public class ProtoDomain implements Serializable {
   }
 
   public Collection<Descriptors.EnumDescriptor> findEnumDescriptorsByOption(String optionName) {
-    Descriptors.FieldDescriptor fieldDescriptor = optionsCatalog.getEnumOptionByName(optionName);
-    return enumMap.values().stream()
+    Descriptors.FieldDescriptor fieldDescriptor =
+        optionsCatalog.get().getEnumOptionByName(optionName);
+    return nameIndex.get().enums.values().stream()
         .filter(
             descriptor -> {
               DescriptorProtos.EnumOptions options = descriptor.getOptions();
@@ -522,8 +1002,9 @@ public class ProtoDomain implements Serializable {
 
   public Collection<Descriptors.ServiceDescriptor> findServiceDescriptorsByOption(
       String optionName) {
-    Descriptors.FieldDescriptor fieldDescriptor = optionsCatalog.getServiceOptionByName(optionName);
-    return serviceMap.values().stream()
+    Descriptors.FieldDescriptor fieldDescriptor =
+        optionsCatalog.get().getServiceOptionByName(optionName);
+    return nameIndex.get().services.values().stream()
         .filter(
             descriptor -> {
               DescriptorProtos.ServiceOptions options = descriptor.getOptions();
@@ -543,8 +1024,22 @@ public class ProtoDomain implements Serializable {
 
   public static class Builder {
     private Map<String, DescriptorProtos.FileDescriptorProto> fileDescriptorMap;
+    // Domain the builder started from and the files touched since, used for incremental builds.
+    private final ProtoDomain base;
+    private final Set<String> touched = new HashSet<>();
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private boolean interning = true;
 
     public Builder(Map<String, Descriptors.FileDescriptor> in) {
+      this(in, null);
+    }
+
+    private Builder(ProtoDomain base) {
+      this(base.fileDescriptorMap, base);
+    }
+
+    private Builder(Map<String, Descriptors.FileDescriptor> in, ProtoDomain base) {
+      this.base = base;
       fileDescriptorMap =
           in.values().stream()
               .map(p -> p.toProto())
@@ -578,6 +1073,7 @@ public class ProtoDomain implements Serializable {
         add(map.get(file));
       } else {
         fileDescriptorMap.remove(file);
+        touched.add(file);
       }
       return this;
     }
@@ -594,11 +1090,12 @@ public class ProtoDomain implements Serializable {
             }
           });
       removing.forEach(f -> fileDescriptorMap.remove(f));
+      touched.addAll(removing);
       // only add with package prefix
       updated.forEach(
           (fileName, fdp) -> {
             if (fdp.getPackage().equals(packageName)) {
-              fileDescriptorMap.put(fileName, fdp);
+              add(fdp);
             }
           });
       return this;
@@ -627,16 +1124,35 @@ public class ProtoDomain implements Serializable {
             }
           });
       removing.forEach(f -> fileDescriptorMap.remove(f));
+      touched.addAll(removing);
       // only add in package
       updated.forEach(
           (fileName, fdp) -> {
             if (isInPackagePrefix(fdp, packagePrefix)) {
-              fileDescriptorMap.put(fileName, fdp);
+              add(fdp);
             }
           });
       return this;
     }
 
+    /**
+     * Sets the number of files from which FileDescriptors are built in parallel, on the common
+     * ForkJoinPool. Integer.MAX_VALUE disables the parallel build.
+     */
+    public Builder setParallelThreshold(int parallelThreshold) {
+      this.parallelThreshold = parallelThreshold;
+      return this;
+    }
+
+    /**
+     * Whether the domain shares the FileDescriptors of identical files with other domains, on by
+     * default. Off, the domain builds all its files, for example to measure the build itself.
+     */
+    public Builder setInterning(boolean interning) {
+      this.interning = interning;
+      return this;
+    }
+
     public Builder merge(Collection<DescriptorProtos.FileDescriptorProto> updateProtos) {
       updateProtos.forEach(proto -> add(proto));
       return this;
@@ -644,14 +1160,163 @@ public class ProtoDomain implements Serializable {
 
     public Builder add(DescriptorProtos.FileDescriptorProto proto) {
       fileDescriptorMap.put(proto.getName(), proto);
+      touched.add(proto.getName());
       return this;
     }
 
+    /**
+     * Builds the domain. A builder created from an existing domain only crosswires the files that
+     * changed and the files depending on them, the FileDescriptors of all other files are reused.
+     */
     public ProtoDomain build() throws InvalidProtocolBufferException {
-      return ProtoDomain.buildFrom(
-          fileDescriptorMap.values().stream()
-              .map(v -> v.toByteString())
-              .collect(Collectors.toList()));
+      BuildOptions options = new BuildOptions(parallelThreshold, interning);
+      if (base != null) {
+        Set<String> changed = new HashSet<>();
+        for (String fileName : touched) {
+          Descriptors.FileDescriptor current = base.fileDescriptorMap.get(fileName);
+          DescriptorProtos.FileDescriptorProto proto = fileDescriptorMap.get(fileName);
+          if (current == null && proto == null) {
+            continue;
+          }
+          if (current == null || proto == null || !current.toProto().equals(proto)) {
+            changed.add(fileName);
+          }
+        }
+        return new ProtoDomain(base, fileDescriptorMap, changed, options);
+      }
+      DescriptorProtos.FileDescriptorSet.Builder setBuilder =
+          DescriptorProtos.FileDescriptorSet.newBuilder();
+      fileDescriptorMap.values().forEach(setBuilder::addFile);
+      return new ProtoDomain(
+          setBuilder.build(), Collections.emptyMap(), Collections.emptyMap(), options);
+    }
+  }
+
+  /** How a domain builds its FileDescriptors, only used while it's built. */
+  private static final class BuildOptions {
+    static final BuildOptions DEFAULT = new BuildOptions(DEFAULT_PARALLEL_THRESHOLD, true);
+
+    final int parallelThreshold;
+    final boolean interning;
+
+    BuildOptions(int parallelThreshold, boolean interning) {
+      this.parallelThreshold = parallelThreshold;
+      this.interning = interning;
+    }
+  }
+
+  /** Descriptors, services and enums by full name. */
+  private static final class NameIndex {
+    private final CompactIndex<Descriptors.Descriptor> descriptors;
+    private final CompactIndex<Descriptors.ServiceDescriptor> services;
+    private final CompactIndex<Descriptors.EnumDescriptor> enums;
+
+    private NameIndex(Builder builder) {
+      if (builder.base == null) {
+        descriptors = new CompactIndex<>(builder.descriptors);
+        services = new CompactIndex<>(builder.services);
+        enums = new CompactIndex<>(builder.enums);
+      } else {
+        descriptors =
+            builder.base.descriptors.merge(builder.removedDescriptors, builder.descriptors);
+        services = builder.base.services.merge(builder.removedServices, builder.services);
+        enums = builder.base.enums.merge(builder.removedEnums, builder.enums);
+      }
+    }
+
+    /**
+     * Collects the names in hash maps, the index itself is compacted once built. On top of a base
+     * index only the added and removed names are collected, they are merged into the sorted base.
+     */
+    static final class Builder {
+      @Nullable private final NameIndex base;
+      private final Map<String, Descriptors.Descriptor> descriptors = new HashMap<>();
+      private final Map<String, Descriptors.ServiceDescriptor> services = new HashMap<>();
+      private final Map<String, Descriptors.EnumDescriptor> enums = new HashMap<>();
+      private final Set<String> removedDescriptors = new HashSet<>();
+      private final Set<String> removedServices = new HashSet<>();
+      private final Set<String> removedEnums = new HashSet<>();
+
+      Builder() {
+        this.base = null;
+      }
+
+      Builder(NameIndex base) {
+        this.base = base;
+      }
+
+      void add(Descriptors.FileDescriptor fd) {
+        addMessageTypes(fd.getMessageTypes());
+        fd.getServices().forEach(sd -> add(services, removedServices, sd.getFullName(), sd));
+        fd.getEnumTypes().forEach(ed -> add(enums, removedEnums, ed.getFullName(), ed));
+      }
+
+      void remove(Descriptors.FileDescriptor fd) {
+        removeMessageTypes(fd.getMessageTypes());
+        fd.getServices().forEach(sd -> remove(services, removedServices, sd.getFullName()));
+        fd.getEnumTypes().forEach(ed -> remove(enums, removedEnums, ed.getFullName()));
+      }
+
+      private static <T> void add(Map<String, T> added, Set<String> removed, String name, T value) {
+        removed.remove(name);
+        added.put(name, value);
+      }
+
+      private static void remove(Map<String, ?> added, Set<String> removed, String name) {
+        added.remove(name);
+        removed.add(name);
+      }
+
+      private void addMessageTypes(List<Descriptors.Descriptor> messageTypes) {
+        messageTypes.forEach(
+            mt -> {
+              add(descriptors, removedDescriptors, mt.getFullName(), mt);
+              addMessageTypes(mt.getNestedTypes());
+            });
+      }
+
+      private void removeMessageTypes(List<Descriptors.Descriptor> messageTypes) {
+        messageTypes.forEach(
+            mt -> {
+              remove(descriptors, removedDescriptors, mt.getFullName());
+              removeMessageTypes(mt.getNestedTypes());
+            });
+      }
+
+      NameIndex build() {
+        return new NameIndex(this);
+      }
+    }
+  }
+
+  /** Thread safe holder of a value that is built once, on first access. */
+  private static final class Lazy<T> implements Supplier<T> {
+    private Supplier<T> factory;
+    private volatile T value;
+
+    Lazy(Supplier<T> factory) {
+      this.factory = factory;
+    }
+
+    @Override
+    public T get() {
+      T result = value;
+      if (result == null) {
+        synchronized (this) {
+          result = value;
+          if (result == null) {
+            result = factory.get();
+            value = result;
+            factory = null;
+          }
+        }
+      }
+      return result;
+    }
+
+    /** Returns the value if it was built already, without building it. */
+    T getIfBuilt() {
+      return value;
     }
   }
 
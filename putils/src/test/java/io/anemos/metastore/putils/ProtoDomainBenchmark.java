@@ -0,0 +1,117 @@
+package io.anemos.metastore.putils;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures building a large synthetic ProtoDomain, sequential against parallel, and the heap it
+ * retains. Not a unit test, run it with {@code ./gradlew :putils:benchmark}, the number of files is
+ * set with {@code -PbenchmarkFiles}. Every file has a single message, so the heap per file is the
+ * heap per descriptor. The build times are measured with interning off, so every run builds all
+ * the files.
+ */
+public class ProtoDomainBenchmark {
+  private static final int ITERATIONS = 5;
+
+  public static void main(String[] args) throws Exception {
+    int files = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+    DescriptorProtos.FileDescriptorSet set = generate(files, new Random(42));
+
+    build(set, Integer.MAX_VALUE);
+    long sequential = measure(set, Integer.MAX_VALUE);
+    long parallel = measure(set, ProtoDomain.DEFAULT_PARALLEL_THRESHOLD);
+
+    System.out.printf("files: %d, cores: %d%n", files, Runtime.getRuntime().availableProcessors());
+    System.out.printf("sequential: %d ms%n", sequential);
+    System.out.printf("parallel:   %d ms%n", parallel);
+    System.out.printf("speedup:    %.2fx%n", (double) sequential / parallel);
+
+    List<ProtoDomain> retained = new ArrayList<>();
+    long first = footprint(set, retained);
+    long second = footprint(set, retained);
+    System.out.printf("heap per descriptor, first domain:  %d bytes%n", first / files);
+    System.out.printf("heap per descriptor, second domain: %d bytes%n", second / files);
+  }
+
+  /** Heap retained by one more domain built from the set, with its indexes built. */
+  private static long footprint(DescriptorProtos.FileDescriptorSet set, List<ProtoDomain> retained)
+      throws IOException {
+    ByteString bytes = set.toByteString();
+    long before = usedMemory();
+    ProtoDomain domain = ProtoDomain.buildFrom(bytes);
+    domain.getDescriptorByName("bench.p0.f0.M");
+    domain.getFileDescriptorsByPackagePrefix("bench");
+    retained.add(domain);
+    return usedMemory() - before;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static ProtoDomain build(DescriptorProtos.FileDescriptorSet set, int threshold)
+      throws IOException {
+    return ProtoDomain.builder()
+        .setInterning(false)
+        .setParallelThreshold(threshold)
+        .merge(set.getFileList())
+        .build();
+  }
+
+  private static long measure(DescriptorProtos.FileDescriptorSet set, int threshold)
+      throws IOException {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      build(set, threshold);
+      best = Math.min(best, (System.nanoTime() - start) / 1_000_000);
+    }
+    return best;
+  }
+
+  /** Every file imports up to three earlier files and has a message referencing each of them. */
+  static DescriptorProtos.FileDescriptorSet generate(int files, Random random) {
+    DescriptorProtos.FileDescriptorSet.Builder set =
+        DescriptorProtos.FileDescriptorSet.newBuilder();
+    for (int i = 0; i < files; i++) {
+      DescriptorProtos.FileDescriptorProto.Builder file =
+          DescriptorProtos.FileDescriptorProto.newBuilder()
+              .setName(String.format("bench/p%d/f%d.proto", i % 100, i))
+              .setPackage(String.format("bench.p%d.f%d", i % 100, i))
+              .setSyntax("proto3");
+      DescriptorProtos.DescriptorProto.Builder message =
+          DescriptorProtos.DescriptorProto.newBuilder().setName("M");
+      message.addField(
+          DescriptorProtos.FieldDescriptorProto.newBuilder()
+              .setName("id")
+              .setNumber(1)
+              .setType(DescriptorProtos.FieldDescriptorProto.Type.TYPE_STRING));
+      int dependencies = i == 0 ? 0 : Math.min(i, 1 + random.nextInt(3));
+      for (int d = 0; d < dependencies; d++) {
+        int dependency = random.nextInt(i);
+        String name = String.format("bench/p%d/f%d.proto", dependency % 100, dependency);
+        if (file.getDependencyList().contains(name)) {
+          continue;
+        }
+        file.addDependency(name);
+        message.addField(
+            DescriptorProtos.FieldDescriptorProto.newBuilder()
+                .setName("dep_" + d)
+                .setNumber(d + 2)
+                .setType(DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE)
+                .setTypeName(String.format(".bench.p%d.f%d.M", dependency % 100, dependency)));
+      }
+      file.addMessageType(message);
+      set.addFile(file);
+    }
+    return set.build();
+  }
+}
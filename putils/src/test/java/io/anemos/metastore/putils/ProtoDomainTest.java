@@ -1,11 +1,20 @@
 package io.anemos.metastore.putils;
 
+import com.google.common.primitives.Bytes;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -151,4 +160,273 @@ public class ProtoDomainTest {
     Message field = (Message) descriptor.getOptions().getField(fd);
     Assert.assertEquals("test.v1.TestOption", field.getDescriptorForType().getFullName());
   }
+
+  private static DescriptorProtos.FileDescriptorProto file(
+      String name, String message, String... dependencies) {
+    DescriptorProtos.DescriptorProto.Builder messageType =
+        DescriptorProtos.DescriptorProto.newBuilder().setName(message);
+    for (int i = 0; i < dependencies.length; i++) {
+      messageType.addField(
+          DescriptorProtos.FieldDescriptorProto.newBuilder()
+              .setName("field_" + i)
+              .setNumber(i + 1)
+              .setType(DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE)
+              .setTypeName(".dep" + i + ".Dep" + i));
+    }
+    return DescriptorProtos.FileDescriptorProto.newBuilder()
+        .setName(name)
+        .setPackage(message.toLowerCase())
+        .addAllDependency(Arrays.asList(dependencies))
+        .addMessageType(messageType)
+        .build();
+  }
+
+  @Test
+  public void incrementalBuildReusesUnchangedFiles() throws Exception {
+    ProtoDomain domain =
+        ProtoDomain.builder()
+            .add(file("dep0.proto", "Dep0"))
+            .add(file("dep1.proto", "Dep1"))
+            .add(file("user.proto", "User", "dep0.proto"))
+            .build();
+    Assert.assertNotNull(domain.getDescriptorByName("user.User"));
+
+    ProtoDomain updated =
+        domain.toBuilder()
+            .add(
+                file("dep0.proto", "Dep0").toBuilder()
+                    .addMessageType(DescriptorProtos.DescriptorProto.newBuilder().setName("Extra"))
+                    .build())
+            .build();
+
+    Assert.assertSame(
+        domain.getFileDescriptorByFileName("dep1.proto"),
+        updated.getFileDescriptorByFileName("dep1.proto"));
+    Assert.assertNotSame(
+        domain.getFileDescriptorByFileName("user.proto"),
+        updated.getFileDescriptorByFileName("user.proto"));
+    Assert.assertSame(
+        updated.getDescriptorByName("dep0.Dep0"),
+        updated.getDescriptorByName("user.User").getFields().get(0).getMessageType());
+    Assert.assertEquals(
+        ProtoDomain.buildFrom(updated.getFileDescriptorSet()).getFileNames(),
+        updated.getFileNames());
+  }
+
+  @Test
+  public void incrementalBuildRemovesFiles() throws Exception {
+    ProtoDomain domain =
+        ProtoDomain.builder()
+            .add(file("dep0.proto", "Dep0"))
+            .add(file("dep1.proto", "Dep1"))
+            .build();
+    Collection<ByteString> none = new ArrayList<>();
+    ProtoDomain updated = domain.toBuilder().replaceFileBinary("dep1.proto", none).build();
+
+    Assert.assertEquals(1, updated.getFileNames().size());
+    Assert.assertNull(updated.getDescriptorByName("dep1.Dep1"));
+    Assert.assertSame(
+        domain.getDescriptorByName("dep0.Dep0"), updated.getDescriptorByName("dep0.Dep0"));
+  }
+
+  @Test
+  public void packageIndex() throws Exception {
+    ProtoDomain domain =
+        ProtoDomain.builder()
+            .add(file("dep0.proto", "Dep0"))
+            .add(file("dep1.proto", "Dep1"))
+            .add(file("user.proto", "User", "dep0.proto"))
+            .build();
+
+    Assert.assertEquals(2, domain.getFileDescriptorsByPackagePrefix("dep").size());
+    Assert.assertEquals(1, domain.getFileDescriptorsByPackagePrefix("dep1").size());
+    Assert.assertEquals(3, domain.getFileDescriptorsByPackagePrefix("").size());
+    Assert.assertEquals(0, domain.getFileDescriptorsByPackagePrefix("x").size());
+    Assert.assertEquals(0, domain.getFileDescriptorsByPackageName("dep").size());
+    Assert.assertEquals(
+        "user.proto", domain.getFileDescriptorsByPackageName("user").get(0).getName());
+  }
+
+  @Test
+  public void dependencyGraph() throws Exception {
+    ProtoDomain domain =
+        ProtoDomain.builder()
+            .add(file("dep0.proto", "Dep0"))
+            .add(file("dep1.proto", "Dep1", "dep0.proto"))
+            .add(file("user.proto", "User", "dep0.proto", "dep1.proto"))
+            .build();
+    DependencyGraph graph = domain.getDependencyGraph();
+
+    List<String> order = graph.getTopologicalOrder();
+    Assert.assertEquals(Arrays.asList("dep0.proto", "dep1.proto", "user.proto"), order);
+    Assert.assertEquals(2, graph.getImporters("dep0.proto").size());
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList("dep0.proto", "dep1.proto", "user.proto")),
+        graph.getImporterClosure("dep0.proto"));
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList("dep1.proto", "user.proto")),
+        graph.getImporterClosure("dep1.proto"));
+    Assert.assertEquals(3, graph.getImportClosure("user.proto").size());
+
+    Collection<Descriptors.FileDescriptor> importing =
+        domain.getImportingFileDescriptors(
+            Collections.singleton(domain.getFileDescriptorByFileName("dep1.proto")));
+    Assert.assertEquals(2, importing.size());
+  }
+
+  @Test
+  public void digestAndEncoding() throws Exception {
+    ProtoDomain domain =
+        ProtoDomain.builder()
+            .add(file("dep0.proto", "Dep0"))
+            .add(file("dep1.proto", "Dep1"))
+            .add(file("user.proto", "User", "dep0.proto"))
+            .build();
+    ByteString bytes = domain.toByteString();
+    Assert.assertSame(bytes, domain.toByteString());
+
+    ProtoDomain parsed = ProtoDomain.buildFrom(bytes);
+    Assert.assertEquals(domain, parsed);
+    Assert.assertEquals(domain.hashCode(), parsed.hashCode());
+    Assert.assertEquals(bytes, parsed.toByteString());
+    Assert.assertEquals(
+        file("dep0.proto", "Dep0").toByteString(), parsed.getFileBytes("dep0.proto"));
+    Assert.assertNull(parsed.getFileBytes("missing.proto"));
+
+    ProtoDomain reversed =
+        ProtoDomain.buildFrom(
+            Arrays.asList(
+                file("user.proto", "User", "dep0.proto").toByteString(),
+                file("dep1.proto", "Dep1").toByteString(),
+                file("dep0.proto", "Dep0").toByteString()));
+    Assert.assertEquals(domain.getDigest(), reversed.getDigest());
+
+    ProtoDomain updated =
+        domain.toBuilder()
+            .add(
+                file("dep1.proto", "Dep1").toBuilder()
+                    .addMessageType(DescriptorProtos.DescriptorProto.newBuilder().setName("Extra"))
+                    .build())
+            .build();
+    Assert.assertNotEquals(domain, updated);
+    Assert.assertEquals(domain.getFileDigest("dep0.proto"), updated.getFileDigest("dep0.proto"));
+    Assert.assertNotEquals(
+        domain.getFileDigest("dep1.proto"), updated.getFileDigest("dep1.proto"));
+  }
+
+  @Test
+  public void sharesFileDescriptorsBetweenDomains() throws Exception {
+    ProtoDomain domain =
+        ProtoDomain.builder()
+            .add(file("dep0.proto", "Dep0"))
+            .add(file("user.proto", "User", "dep0.proto"))
+            .build();
+    ProtoDomain same = ProtoDomain.buildFrom(domain.toByteString());
+    Assert.assertSame(
+        domain.getFileDescriptorByFileName("user.proto"),
+        same.getFileDescriptorByFileName("user.proto"));
+
+    ProtoDomain changed =
+        ProtoDomain.builder()
+            .add(
+                file("dep0.proto", "Dep0").toBuilder()
+                    .addMessageType(DescriptorProtos.DescriptorProto.newBuilder().setName("Extra"))
+                    .build())
+            .add(file("user.proto", "User", "dep0.proto"))
+            .build();
+    Assert.assertNotSame(
+        domain.getFileDescriptorByFileName("user.proto"),
+        changed.getFileDescriptorByFileName("user.proto"));
+    Assert.assertSame(
+        changed.getDescriptorByName("dep0.Dep0"),
+        changed.getDescriptorByName("user.User").getFields().get(0).getMessageType());
+  }
+
+  @Test
+  public void compactIndex() {
+    Map<String, Integer> map = new HashMap<>();
+    map.put("b.B", 2);
+    map.put("a.A", 1);
+    map.put("c.C", 3);
+    CompactIndex<Integer> index = new CompactIndex<>(map);
+
+    Assert.assertEquals(3, index.size());
+    Assert.assertEquals(Integer.valueOf(2), index.get("b.B"));
+    Assert.assertNull(index.get("b"));
+    Assert.assertEquals(Arrays.asList(1, 2, 3), index.values());
+
+    Map<String, Integer> added = new HashMap<>();
+    added.put("d.D", 4);
+    added.put("b.B", 20);
+    added.put("0.Z", 0);
+    CompactIndex<Integer> merged = index.merge(Collections.singleton("c.C"), added);
+    Assert.assertEquals(4, merged.size());
+    Assert.assertEquals(Arrays.asList(0, 1, 20, 4), merged.values());
+    Assert.assertNull(merged.get("c.C"));
+    Assert.assertEquals(Integer.valueOf(20), merged.get("b.B"));
+    Assert.assertSame(index, index.merge(Collections.emptySet(), Collections.emptyMap()));
+  }
+
+  @Test
+  public void snapshot() throws Exception {
+    ProtoDomain domain = TestSets.baseMultipleOptions();
+    ByteString snapshot = domain.toSnapshot();
+    ProtoDomain restored = ProtoDomain.buildFromSnapshot(snapshot);
+    Assert.assertEquals(domain, restored);
+    Assert.assertEquals(domain.toByteString(), restored.toByteString());
+    Assert.assertEquals(1, restored.findDescriptorsByOption("test.v1.message_option").size());
+
+    byte[] corrupt = snapshot.toByteArray();
+    corrupt[corrupt.length - 1] ^= 1;
+    try {
+      ProtoDomain.buildFromSnapshot(ByteString.copyFrom(corrupt));
+      Assert.fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void snapshotWithCorruptFile() throws Exception {
+    byte[] snapshot = TestSets.baseMultipleOptions().toSnapshot().toByteArray();
+    // the package name only shows up inside the file bytes, the file names use slashes
+    byte[] packageName = "test.v1".getBytes(StandardCharsets.UTF_8);
+    int at = Bytes.indexOf(snapshot, packageName);
+    Assert.assertTrue(at > 0);
+    snapshot[at + packageName.length - 1] = '2';
+    try {
+      ProtoDomain.buildFromSnapshot(ByteString.copyFrom(snapshot));
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("digest of"));
+    }
+  }
+
+  @Test
+  public void digestOfSerializedFiles() throws Exception {
+    ProtoDomain domain = TestSets.baseMultipleOptions();
+    Assert.assertEquals(
+        domain.getDigest(),
+        FileDescriptorSets.digest(FileDescriptorSets.split(domain.toByteString())));
+    Assert.assertEquals(domain.getDigest(), ProtoDomain.getSnapshotDigest(domain.toSnapshot()));
+    Assert.assertNull(ProtoDomain.getSnapshotDigest(domain.toByteString()));
+  }
+
+  @Test
+  public void parallelBuild() throws Exception {
+    ProtoDomain sequential = TestSets.baseMultipleOptions();
+    // without interning the parallel domain builds its files instead of reusing the sequential ones
+    ProtoDomain parallel =
+        ProtoDomain.builder()
+            .setInterning(false)
+            .setParallelThreshold(0)
+            .merge(sequential.getFileDescriptorSet().getFileList())
+            .build();
+    Assert.assertNotSame(
+        sequential.getFileDescriptor("test/v1/option.proto"),
+        parallel.getFileDescriptor("test/v1/option.proto"));
+    Assert.assertEquals(sequential.getFileNames(), parallel.getFileNames());
+    Assert.assertEquals(1, parallel.findDescriptorsByOption("test.v1.message_option").size());
+    Assert.assertEquals(1, parallel.findFileDescriptorsByOption("test.v1.file_option").size());
+  }
 }
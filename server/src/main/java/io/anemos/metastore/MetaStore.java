@@ -29,4 +29,8 @@ public class MetaStore {
   public void init(MetaStoreConfig config) {
     registries = new Registries(config);
   }
+
+  public Registries getRegistries() {
+    return registries;
+  }
 }
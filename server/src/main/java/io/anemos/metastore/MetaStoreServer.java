@@ -21,6 +21,7 @@ public class MetaStoreServer {
 
   private final int port;
   private final Server server;
+  private final RegistryService registryService;
 
   /** Create a RouteGuide server listening on {@code port} using {@code featureFile} database. */
   private MetaStoreServer(String configPath, int port) throws IOException {
@@ -32,11 +33,12 @@ public class MetaStoreServer {
       throws IOException {
     MetaStore metaStore = new MetaStore(configPath);
     this.port = port;
+    this.registryService = new RegistryService(metaStore);
 
     server =
         serverBuilder
             .addService(new MetaStoreService(metaStore))
-            .addService(new RegistryService(metaStore))
+            .addService(registryService)
             .addService(ProtoReflectionService.newInstance())
             .build();
   }
@@ -110,6 +112,7 @@ public class MetaStoreServer {
     if (server != null) {
       server.shutdown();
     }
+    registryService.shutdown();
   }
 
   /** Await termination on the main thread since the grpc library uses daemon threads. */
@@ -2,12 +2,21 @@ package io.anemos.metastore;
 
 import static io.anemos.metastore.v1alpha1.RegistryP.GetResourceBindingeRequest.SchemaContext;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.Descriptors;
 import io.anemos.metastore.core.proto.profile.*;
 import io.anemos.metastore.core.proto.validate.ProtoDiff;
 import io.anemos.metastore.core.proto.validate.ProtoLint;
-import io.anemos.metastore.core.proto.validate.ValidationResults;
+import io.anemos.metastore.core.proto.validate.ReportSink;
 import io.anemos.metastore.core.registry.AbstractRegistry;
+import io.anemos.metastore.core.registry.CommitPipeline;
+import io.anemos.metastore.core.registry.FileState;
+import io.anemos.metastore.core.registry.RegistrySnapshot;
 import io.anemos.metastore.putils.ProtoDomain;
 import io.anemos.metastore.v1alpha1.RegistryGrpc;
 import io.anemos.metastore.v1alpha1.RegistryP;
@@ -15,14 +24,26 @@ import io.anemos.metastore.v1alpha1.Report;
 import io.anemos.metastore.v1alpha1.ResultCount;
 import io.grpc.Status;
 import io.grpc.StatusException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import io.opencensus.stats.Measure;
 import io.opencensus.stats.Stats;
 import io.opencensus.stats.StatsRecorder;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,13 +54,51 @@ public class RegistryService extends RegistryGrpc.RegistryImplBase {
   private static final Measure.MeasureLong GET_FDS =
       Measure.MeasureLong.create(
           "get_schema_file_descriptors_count", "The number of file descriptors returned", "1");
+  private static final Measure.MeasureLong GET_SCHEMA_CACHE_HITS =
+      Measure.MeasureLong.create(
+          "get_schema_cache_hits", "The number of GetSchema requests served from cache", "1");
+  private static final Measure.MeasureLong GET_SCHEMA_CACHE_MISSES =
+      Measure.MeasureLong.create(
+          "get_schema_cache_misses", "The number of GetSchema requests not found in cache", "1");
   private static final StatsRecorder STATS_RECORDER = Stats.getStatsRecorder();
+  // Upper bound of the serialized size of the cached GetSchema responses of a registry.
+  private static final long SCHEMA_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+  private static final int WATCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
 
   private MetaStore metaStore;
+  // Computes and sends the WatchSchema responses, off the committer threads of the registries.
+  // Every watch drains on it one task at a time, the number of threads doesn't grow with them.
+  private final ExecutorService watchExecutor =
+      Executors.newFixedThreadPool(
+          WATCH_THREADS,
+          runnable -> {
+            Thread thread = new Thread(runnable, "schema-watch");
+            thread.setDaemon(true);
+            return thread;
+          });
+  // GetSchema responses of the current version, by registry name.
+  private final Map<String, SchemaCache> schemaCaches = new ConcurrentHashMap<>();
 
   public RegistryService(MetaStore metaStore) {
 
     this.metaStore = metaStore;
+    metaStore.registries
+        .getRegistries()
+        .forEach(
+            r -> {
+              r.addSnapshotListener(this::evictSchemas);
+              schemaCaches.putIfAbsent(r.getName(), new SchemaCache(r.snapshot().getVersion()));
+            });
+  }
+
+  /** Stops the WatchSchema threads, once the server stopped serving requests. */
+  public void shutdown() {
+    watchExecutor.shutdownNow();
+  }
+
+  /** Drops the cached responses of the previous version at once, by replacing the cache. */
+  private void evictSchemas(AbstractRegistry registry, RegistrySnapshot snapshot) {
+    schemaCaches.put(registry.getName(), new SchemaCache(snapshot.getVersion()));
   }
 
   @Override
@@ -87,69 +146,86 @@ public class RegistryService extends RegistryGrpc.RegistryImplBase {
       return;
     }
 
-    ProtoDomain in;
+    if (!submit) {
+      RegistrySnapshot base = registry.snapshot();
+      try {
+        ProtoDomain in = apply(base.getDomain(), request);
+        Report report = validate(registry, request, base.getDomain(), in);
+        responseObserver.onNext(
+            RegistryP.SubmitSchemaResponse.newBuilder()
+                .setReport(report)
+                .setVersion(base.getVersion())
+                .build());
+        responseObserver.onCompleted();
+      } catch (StatusException e) {
+        responseObserver.onError(e);
+      }
+      return;
+    }
+
+    registry
+        .submit(
+            request.getExpectedVersion(),
+            request.getComment(),
+            base -> {
+              ProtoDomain in = apply(base, request);
+              Report report = validate(registry, request, base, in);
+              if (hasErrors(report)) {
+                throw Status.fromCode(Status.Code.FAILED_PRECONDITION)
+                    .withDescription("Incompatible schema, us verify to get errors.")
+                    .asException();
+              }
+              return new CommitPipeline.Commit(in, report);
+            })
+        .whenComplete(
+            (commit, error) -> {
+              if (error != null) {
+                if (error instanceof CompletionException && error.getCause() != null) {
+                  error = error.getCause();
+                }
+                responseObserver.onError(Status.fromThrowable(error).asRuntimeException());
+                return;
+              }
+              responseObserver.onNext(
+                  RegistryP.SubmitSchemaResponse.newBuilder()
+                      .setReport(commit.getReport())
+                      .setVersion(commit.getVersion())
+                      .build());
+              responseObserver.onCompleted();
+            });
+  }
+
+  private ProtoDomain apply(ProtoDomain base, RegistryP.SubmitSchemaRequest request)
+      throws StatusException {
     try {
-      ProtoDomain.Builder builder = registry.get().toBuilder();
+      ProtoDomain.Builder builder = base.toBuilder();
       switch (request.getEntityScopeCase()) {
         case PACKAGE_NAME:
-          in =
-              builder
-                  .replacePackageBinary(
-                      validatePackage(request.getPackageName()),
-                      request.getFileDescriptorProtoList())
-                  .build();
-          break;
+          return builder
+              .replacePackageBinary(
+                  validatePackage(request.getPackageName()), request.getFileDescriptorProtoList())
+              .build();
         case PACKAGE_PREFIX:
-          in =
-              builder
-                  .replacePackagePrefixBinary(
-                      validatePackage(request.getPackagePrefix()),
-                      request.getFileDescriptorProtoList())
-                  .build();
-          break;
+          return builder
+              .replacePackagePrefixBinary(
+                  validatePackage(request.getPackagePrefix()),
+                  request.getFileDescriptorProtoList())
+              .build();
         case FILE_NAME:
-          in =
-              builder
-                  .replaceFileBinary(
-                      validateFileName(request.getFileName()), request.getFileDescriptorProtoList())
-                  .build();
-          break;
+          return builder
+              .replaceFileBinary(
+                  validateFileName(request.getFileName()), request.getFileDescriptorProtoList())
+              .build();
         case ENTITYSCOPE_NOT_SET:
         default:
-          in = builder.mergeBinary(request.getFileDescriptorProtoList()).build();
+          return builder.mergeBinary(request.getFileDescriptorProtoList()).build();
       }
-    } catch (StatusException e) {
-      responseObserver.onError(e);
-      return;
     } catch (IOException | RuntimeException e) {
       LOG.error("Invalid FileDescriptor Set", e);
-      responseObserver.onError(
-          Status.fromCode(Status.Code.INVALID_ARGUMENT)
-              .withDescription("Invalid FileDescriptor Set.")
-              .withCause(e)
-              .asRuntimeException());
-      return;
-    }
-
-    try {
-      Report report = validate(registry, request, registry.get(), in);
-
-      if (submit) {
-        if (hasErrors(report)) {
-          responseObserver.onError(
-              Status.fromCode(Status.Code.FAILED_PRECONDITION)
-                  .withDescription("Incompatible schema, us verify to get errors.")
-                  .asRuntimeException());
-          return;
-        }
-        registry.update(registry.ref(), in, report, request.getComment());
-      }
-
-      responseObserver.onNext(
-          RegistryP.SubmitSchemaResponse.newBuilder().setReport(report).build());
-      responseObserver.onCompleted();
-    } catch (StatusException e) {
-      responseObserver.onError(e);
+      throw Status.fromCode(Status.Code.INVALID_ARGUMENT)
+          .withDescription("Invalid FileDescriptor Set.")
+          .withCause(e)
+          .asException();
     }
   }
 
@@ -167,7 +243,7 @@ public class RegistryService extends RegistryGrpc.RegistryImplBase {
       ProtoDomain ref,
       ProtoDomain in)
       throws StatusException {
-    ValidationResults results = new ValidationResults();
+    ReportSink results = new ReportSink();
     ProtoDiff diff = new ProtoDiff(ref, in, results);
     ProtoLint lint = new ProtoLint(in, results);
 
@@ -221,109 +297,280 @@ public class RegistryService extends RegistryGrpc.RegistryImplBase {
       RegistryP.GetSchemaRequest request,
       StreamObserver<RegistryP.GetSchemaResponse> responseObserver) {
     try {
-      RegistryP.GetSchemaResponse.Builder schemaResponseBuilder =
-          RegistryP.GetSchemaResponse.newBuilder();
-
       AbstractRegistry registry = metaStore.registries.get(request.getRegistryName());
-      ProtoDomain pContainer = registry.get();
+      RegistrySnapshot snapshot =
+          request.getVersion() > 0
+              ? registry.snapshotAt(request.getVersion())
+              : registry.snapshot();
+
+      RegistryP.GetSchemaResponse response;
+      if (request.getEntityScopeCase()
+          == RegistryP.GetSchemaRequest.EntityScopeCase.LINKED_RESOURCE) {
+        // bindings can change without a new version of the registry
+        response = getSchema(registry, snapshot, request);
+      } else {
+        // only the current version is cached, a cache that moved on is left alone
+        SchemaCache cache = schemaCaches.get(registry.getName());
+        boolean cached = cache.version == snapshot.getVersion();
+        RegistryP.GetSchemaRequest key = SchemaCache.key(request);
+        response = cached ? cache.responses.getIfPresent(key) : null;
+        if (response == null) {
+          STATS_RECORDER.newMeasureMap().put(GET_SCHEMA_CACHE_MISSES, 1).record();
+          response = getSchema(registry, snapshot, request);
+          if (cached) {
+            cache.responses.put(key, response);
+          }
+        } else {
+          STATS_RECORDER.newMeasureMap().put(GET_SCHEMA_CACHE_HITS, 1).record();
+        }
+      }
+      if (!request.getIfNoneMatch().isEmpty()
+          && request.getIfNoneMatch().equals(response.getEtag())) {
+        response =
+            RegistryP.GetSchemaResponse.newBuilder()
+                .setRegistryVersion(response.getRegistryVersion())
+                .setEtag(response.getEtag())
+                .setNotModified(true)
+                .build();
+      }
+      STATS_RECORDER.newMeasureMap().put(GET_FDS, response.getFileDescriptorProtoCount()).record();
+      responseObserver.onNext(response);
+      responseObserver.onCompleted();
+    } catch (StatusException e) {
+      responseObserver.onError(e);
+    }
+  }
+
+  @Override
+  public void watchSchema(
+      RegistryP.WatchSchemaRequest request,
+      StreamObserver<RegistryP.WatchSchemaResponse> responseObserver) {
+    AbstractRegistry registry;
+    try {
+      registry = metaStore.registries.get(request.getRegistryName());
+    } catch (StatusException e) {
+      responseObserver.onError(e);
+      return;
+    }
+    new SchemaWatch(
+            registry,
+            request.getPackagePrefix(),
+            (ServerCallStreamObserver<RegistryP.WatchSchemaResponse>) responseObserver,
+            watchExecutor)
+        .start();
+  }
 
-      List<Descriptors.FileDescriptor> fdl = new ArrayList<>();
+  private RegistryP.GetSchemaResponse getSchema(
+      AbstractRegistry registry, RegistrySnapshot snapshot, RegistryP.GetSchemaRequest request)
+      throws StatusException {
+    RegistryP.GetSchemaResponse.Builder schemaResponseBuilder =
+        RegistryP.GetSchemaResponse.newBuilder();
+    Collection<Descriptors.FileDescriptor> fds = getScope(registry, snapshot, request);
+    if (fds.size() == 0) {
+      throw Status.fromCode(Status.Code.NOT_FOUND)
+          .withDescription("No descriptors matching the search criteria.")
+          .asException();
+    }
+    schemaResponseBuilder.setRegistryVersion(snapshot.getVersion()).setEtag(etag(snapshot, fds));
+
+    Map<String, FileState> since = getSince(registry, request);
+    Set<String> sinceScope = since == null ? null : getSinceScope(registry, request, since);
+    if (sinceScope != null) {
+      Map<String, FileState> current = snapshot.getFiles();
+      Set<String> scope =
+          fds.stream().map(Descriptors.FileDescriptor::getName).collect(Collectors.toSet());
+      fds =
+          fds.stream()
+              .filter(
+                  fd ->
+                      !sinceScope.contains(fd.getName())
+                          || !Objects.equals(current.get(fd.getName()), since.get(fd.getName())))
+              .collect(Collectors.toList());
+      sinceScope.stream()
+          .filter(fileName -> !scope.contains(fileName))
+          .sorted()
+          .forEach(schemaResponseBuilder::addRemovedFileName);
+      schemaResponseBuilder.setDelta(true);
+    }
+    return schemaResponseBuilder.addAllFileDescriptorProto(snapshot.getFileBytes(fds)).build();
+  }
+
+  /**
+   * The files of the earlier version of the request to return the changes since, null when there
+   * is none or when that version is no longer available and all the files are returned.
+   */
+  private static Map<String, FileState> getSince(
+      AbstractRegistry registry, RegistryP.GetSchemaRequest request) throws StatusException {
+    if (request.getSinceVersion() <= 0) {
+      return null;
+    }
+    try {
+      return registry.filesAt(request.getSinceVersion());
+    } catch (StatusException e) {
+      if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * The names of the files in scope of the request at the since version. Scopes by package or file
+   * name are resolved on the files of that version. Scopes by type and transitive scopes need the
+   * domain of that version, null when it's no longer available.
+   */
+  private static Set<String> getSinceScope(
+      AbstractRegistry registry, RegistryP.GetSchemaRequest request, Map<String, FileState> since)
+      throws StatusException {
+    if (!request.getTransitive()) {
       switch (request.getEntityScopeCase()) {
         case PACKAGE_PREFIX:
-          fdl = pContainer.getFileDescriptorsByPackagePrefix(request.getPackagePrefix());
-
-          break;
+          return fileNames(
+              since, state -> state.getPackageName().startsWith(request.getPackagePrefix()));
         case PACKAGE_NAME:
-          fdl = pContainer.getFileDescriptorsByPackageName(request.getPackageName());
-          break;
-        case MESSAGE_NAME:
-          Descriptors.Descriptor descriptor =
-              pContainer.getDescriptorByName(request.getMessageName());
-          if (descriptor != null) {
-            fdl.add(descriptor.getFile());
-          }
-          break;
-        case SERVICE_NAME:
-          Descriptors.ServiceDescriptor serviceDescriptor =
-              pContainer.getServiceDescriptorByName(request.getServiceName());
-          if (serviceDescriptor != null) {
-            fdl.add(serviceDescriptor.getFile());
-          }
-          break;
-        case ENUM_NAME:
-          Descriptors.EnumDescriptor enumDescriptor =
-              pContainer.getEnumDescriptorByName(request.getServiceName());
-          if (enumDescriptor != null) {
-            fdl.add(enumDescriptor.getFile());
-          }
-          break;
+          return fileNames(since, state -> state.getPackageName().equals(request.getPackageName()));
         case FILE_NAME:
-          Descriptors.FileDescriptor fileDescriptor =
-              pContainer.getFileDescriptorByFileName(request.getFileName());
-          if (fileDescriptor != null) {
-            fdl.add(fileDescriptor);
-          }
-          break;
-        case LINKED_RESOURCE:
-          RegistryP.ResourceBinding resourceBinding =
-              registry.getResourceBinding(request.getLinkedResource());
-          switch (resourceBinding.getTypeCase()) {
-            case MESSAGE_NAME:
-              Descriptors.Descriptor linkedDescriptor =
-                  pContainer.getDescriptorByName(resourceBinding.getMessageName());
-              if (linkedDescriptor == null) {
-                throw Status.fromCode(Status.Code.NOT_FOUND)
-                    .withDescription("Message referenced in binding not found.")
-                    .asException();
-              }
-              fdl.add(linkedDescriptor.getFile());
-              break;
-            case SERVICE_NAME:
-              Descriptors.ServiceDescriptor linkedServiceDescriptor =
-                  pContainer.getServiceDescriptorByName(resourceBinding.getServiceName());
-              if (linkedServiceDescriptor == null) {
-                throw Status.fromCode(Status.Code.NOT_FOUND)
-                    .withDescription("Service referenced in binding not found.")
-                    .asException();
-              }
-              fdl.add(linkedServiceDescriptor.getFile());
-              break;
-            case TYPE_NOT_SET:
-            default:
-              throw Status.fromCode(Status.Code.INTERNAL).asRuntimeException();
-          }
-          break;
+          return since.containsKey(request.getFileName())
+              ? Collections.singleton(request.getFileName())
+              : Collections.emptySet();
         case ENTITYSCOPE_NOT_SET:
-          fdl = pContainer.getFileDescriptors();
-          break;
+          return since.keySet();
         default:
-          throw Status.fromCode(Status.Code.INTERNAL).asRuntimeException();
-      }
-      if (fdl.size() == 0) {
-        throw Status.fromCode(Status.Code.NOT_FOUND)
-            .withDescription("No descriptors matching the search criteria.")
-            .asException();
+          break;
       }
-      if (request.getTransitive()) {
-        schemaResponseBuilder.addAllFileDescriptorProto(
-            pContainer.getDependantFileDescriptors(fdl).stream()
-                .map(fd -> fd.toProto().toByteString())
-                .collect(Collectors.toList()));
-      } else {
-        schemaResponseBuilder.addAllFileDescriptorProto(
-            fdl.stream().map(fd -> fd.toProto().toByteString()).collect(Collectors.toList()));
+    }
+    RegistrySnapshot sinceSnapshot;
+    try {
+      sinceSnapshot = registry.snapshotAt(request.getSinceVersion());
+    } catch (StatusException e) {
+      if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+        return null;
       }
-      STATS_RECORDER
-          .newMeasureMap()
-          .put(GET_FDS, schemaResponseBuilder.getFileDescriptorProtoCount())
-          .record();
-      responseObserver.onNext(schemaResponseBuilder.build());
-      responseObserver.onCompleted();
+      throw e;
+    }
+    try {
+      return getScope(registry, sinceSnapshot, request).stream()
+          .map(Descriptors.FileDescriptor::getName)
+          .collect(Collectors.toSet());
     } catch (StatusException e) {
-      responseObserver.onError(e);
+      if (e.getStatus().getCode() != Status.Code.NOT_FOUND) {
+        throw e;
+      }
+      return Collections.emptySet();
     }
   }
 
+  private static Set<String> fileNames(Map<String, FileState> files, Predicate<FileState> inScope) {
+    return files.entrySet().stream()
+        .filter(entry -> inScope.test(entry.getValue()))
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toSet());
+  }
+
+  /** The files of the snapshot in scope of the request, with their imports if transitive. */
+  private static Collection<Descriptors.FileDescriptor> getScope(
+      AbstractRegistry registry, RegistrySnapshot snapshot, RegistryP.GetSchemaRequest request)
+      throws StatusException {
+    ProtoDomain pContainer = snapshot.getDomain();
+
+    List<Descriptors.FileDescriptor> fdl = new ArrayList<>();
+    switch (request.getEntityScopeCase()) {
+      case PACKAGE_PREFIX:
+        fdl = pContainer.getFileDescriptorsByPackagePrefix(request.getPackagePrefix());
+
+        break;
+      case PACKAGE_NAME:
+        fdl = pContainer.getFileDescriptorsByPackageName(request.getPackageName());
+        break;
+      case MESSAGE_NAME:
+        Descriptors.Descriptor descriptor = pContainer.getDescriptorByName(request.getMessageName());
+        if (descriptor != null) {
+          fdl.add(descriptor.getFile());
+        }
+        break;
+      case SERVICE_NAME:
+        Descriptors.ServiceDescriptor serviceDescriptor =
+            pContainer.getServiceDescriptorByName(request.getServiceName());
+        if (serviceDescriptor != null) {
+          fdl.add(serviceDescriptor.getFile());
+        }
+        break;
+      case ENUM_NAME:
+        Descriptors.EnumDescriptor enumDescriptor =
+            pContainer.getEnumDescriptorByName(request.getServiceName());
+        if (enumDescriptor != null) {
+          fdl.add(enumDescriptor.getFile());
+        }
+        break;
+      case FILE_NAME:
+        Descriptors.FileDescriptor fileDescriptor =
+            pContainer.getFileDescriptorByFileName(request.getFileName());
+        if (fileDescriptor != null) {
+          fdl.add(fileDescriptor);
+        }
+        break;
+      case LINKED_RESOURCE:
+        RegistryP.ResourceBinding resourceBinding =
+            registry.getResourceBinding(request.getLinkedResource());
+        switch (resourceBinding.getTypeCase()) {
+          case MESSAGE_NAME:
+            Descriptors.Descriptor linkedDescriptor =
+                pContainer.getDescriptorByName(resourceBinding.getMessageName());
+            if (linkedDescriptor == null) {
+              throw Status.fromCode(Status.Code.NOT_FOUND)
+                  .withDescription("Message referenced in binding not found.")
+                  .asException();
+            }
+            fdl.add(linkedDescriptor.getFile());
+            break;
+          case SERVICE_NAME:
+            Descriptors.ServiceDescriptor linkedServiceDescriptor =
+                pContainer.getServiceDescriptorByName(resourceBinding.getServiceName());
+            if (linkedServiceDescriptor == null) {
+              throw Status.fromCode(Status.Code.NOT_FOUND)
+                  .withDescription("Service referenced in binding not found.")
+                  .asException();
+            }
+            fdl.add(linkedServiceDescriptor.getFile());
+            break;
+          case TYPE_NOT_SET:
+          default:
+            throw Status.fromCode(Status.Code.INTERNAL).asRuntimeException();
+        }
+        break;
+      case ENTITYSCOPE_NOT_SET:
+        fdl = pContainer.getFileDescriptors();
+        break;
+      default:
+        throw Status.fromCode(Status.Code.INTERNAL).asRuntimeException();
+    }
+    if (request.getTransitive() && fdl.size() > 0) {
+      return pContainer.getDependantFileDescriptors(fdl);
+    }
+    return fdl;
+  }
+
+  /**
+   * Hashes the file names and file digests, independent of the order of the files. The file
+   * digests are kept by the domain, so the files are not hashed again on every request.
+   */
+  private static String etag(
+      RegistrySnapshot snapshot, Collection<Descriptors.FileDescriptor> fileDescriptors) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    fileDescriptors.stream()
+        .sorted(Comparator.comparing(Descriptors.FileDescriptor::getName))
+        .forEach(
+            fd -> {
+              HashCode fileDigest = snapshot.getDomain().getFileDigest(fd.getName());
+              if (fileDigest == null) {
+                fileDigest = Hashing.sha256().hashBytes(fd.toProto().toByteArray());
+              }
+              hasher.putString(fd.getName(), StandardCharsets.UTF_8);
+              hasher.putBytes(fileDigest.asBytes());
+            });
+    return hasher.hash().toString();
+  }
+
   @Override
   public void createResourceBinding(
       RegistryP.CreateResourceBindingRequest request,
@@ -366,12 +613,10 @@ public class RegistryService extends RegistryGrpc.RegistryImplBase {
       RegistryP.GetResourceBindingResponse.Builder response =
           RegistryP.GetResourceBindingResponse.newBuilder().setBinding(resourceBinding);
 
-      ProtoDomain pContainer = registry.get();
+      RegistrySnapshot snapshot = registry.snapshot();
+      ProtoDomain pContainer = snapshot.getDomain();
       if (request.getSchemaContext() == SchemaContext.SCHEMA_CONTEXT_FULL_DOMAIN) {
-        response.addAllFileDescriptorProto(
-            pContainer.getFileDescriptors().stream()
-                .map(fd -> fd.toProto().toByteString())
-                .collect(Collectors.toList()));
+        response.addAllFileDescriptorProto(snapshot.getFileBytes(pContainer.getFileDescriptors()));
       } else if (request.getSchemaContext() == SchemaContext.SCHEMA_CONTEXT_IN_SCOPE) {
         Collection<Descriptors.FileDescriptor> fds = new ArrayList<>();
         switch (resourceBinding.getTypeCase().getNumber()) {
@@ -390,19 +635,18 @@ public class RegistryService extends RegistryGrpc.RegistryImplBase {
                 .withDescription("Linked resource isn't linked to a descriptor")
                 .asRuntimeException();
         }
-        response.addAllFileDescriptorProto(
-            fds.stream().map(fd -> fd.toProto().toByteString()).collect(Collectors.toList()));
+        response.addAllFileDescriptorProto(snapshot.getFileBytes(fds));
       } else if (request.getSchemaContext() == SchemaContext.SCHEMA_CONTEXT_IN_FILE) {
         switch (resourceBinding.getTypeCase().getNumber()) {
           case RegistryP.ResourceBinding.MESSAGE_NAME_FIELD_NUMBER:
             Descriptors.Descriptor descriptor =
                 pContainer.getDescriptorByName(resourceBinding.getMessageName());
-            response.addFileDescriptorProto(descriptor.getFile().toProto().toByteString());
+            response.addFileDescriptorProto(snapshot.getFileBytes(descriptor.getFile()));
             break;
           case RegistryP.ResourceBinding.SERVICE_NAME_FIELD_NUMBER:
             Descriptors.ServiceDescriptor service =
                 pContainer.getServiceDescriptorByName(resourceBinding.getServiceName());
-            response.addFileDescriptorProto(service.getFile().toProto().toByteString());
+            response.addFileDescriptorProto(snapshot.getFileBytes(service.getFile()));
             break;
           default:
             throw Status.fromCode(Status.Code.INTERNAL)
@@ -451,4 +695,28 @@ public class RegistryService extends RegistryGrpc.RegistryImplBase {
       responseObserver.onError(e);
     }
   }
+
+  /**
+   * GetSchema responses of a single version of a registry. A new version gets a new cache, so a
+   * response of an earlier version computed late never lands in the cache of the current one.
+   */
+  private static class SchemaCache {
+    final long version;
+    final Cache<RegistryP.GetSchemaRequest, RegistryP.GetSchemaResponse> responses =
+        CacheBuilder.newBuilder()
+            .maximumWeight(SCHEMA_CACHE_MAX_BYTES)
+            .weigher(
+                (Weigher<RegistryP.GetSchemaRequest, RegistryP.GetSchemaResponse>)
+                    (request, response) -> response.getSerializedSize())
+            .build();
+
+    SchemaCache(long version) {
+      this.version = version;
+    }
+
+    /** The request without the fields that don't change the response. */
+    static RegistryP.GetSchemaRequest key(RegistryP.GetSchemaRequest request) {
+      return request.toBuilder().clearRegistryName().clearIfNoneMatch().clearVersion().build();
+    }
+  }
 }
@@ -0,0 +1,123 @@
+package io.anemos.metastore;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Descriptors;
+import io.anemos.metastore.core.registry.AbstractRegistry;
+import io.anemos.metastore.core.registry.RegistrySnapshot;
+import io.anemos.metastore.core.registry.SnapshotListener;
+import io.anemos.metastore.putils.ProtoDomain;
+import io.anemos.metastore.v1alpha1.RegistryP;
+import io.grpc.stub.ServerCallStreamObserver;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A single WatchSchema subscriber. Only the latest published snapshot is kept as pending, a slow
+ * subscriber skips the versions in between and gets the changes against the last snapshot it
+ * received. Responses are only sent while the transport is ready, so gRPC flow control is honoured.
+ *
+ * <p>The changes are computed and sent on the given executor, one drain at a time, never on the
+ * committer thread of the registry. Cancelling doesn't wait for a running drain, the drain stops
+ * before its next response.
+ */
+class SchemaWatch implements SnapshotListener {
+  private final AbstractRegistry registry;
+  private final String packagePrefix;
+  private final ServerCallStreamObserver<RegistryP.WatchSchemaResponse> observer;
+  private final Executor executor;
+  private final AtomicReference<RegistrySnapshot> pending = new AtomicReference<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  // Only touched by the drains, which run one at a time.
+  private RegistrySnapshot sent;
+  private volatile boolean cancelled;
+
+  SchemaWatch(
+      AbstractRegistry registry,
+      String packagePrefix,
+      ServerCallStreamObserver<RegistryP.WatchSchemaResponse> observer,
+      Executor executor) {
+    this.registry = registry;
+    this.packagePrefix = packagePrefix;
+    this.observer = observer;
+    this.executor = MoreExecutors.newSequentialExecutor(executor);
+  }
+
+  void start() {
+    observer.setOnCancelHandler(
+        () -> {
+          cancelled = true;
+          registry.removeSnapshotListener(this);
+        });
+    observer.setOnReadyHandler(this::scheduleDrain);
+    registry.addSnapshotListener(this);
+    pending.compareAndSet(null, registry.snapshot());
+    scheduleDrain();
+  }
+
+  @Override
+  public void snapshotPublished(AbstractRegistry registry, RegistrySnapshot snapshot) {
+    pending.set(snapshot);
+    scheduleDrain();
+  }
+
+  /** Queues a drain, unless one is queued already that will pick up the pending snapshot. */
+  private void scheduleDrain() {
+    if (scheduled.compareAndSet(false, true)) {
+      executor.execute(
+          () -> {
+            scheduled.set(false);
+            drain();
+          });
+    }
+  }
+
+  private void drain() {
+    while (!cancelled && observer.isReady()) {
+      RegistrySnapshot snapshot = pending.getAndSet(null);
+      if (snapshot == null) {
+        return;
+      }
+      if (sent != null && snapshot.getVersion() <= sent.getVersion()) {
+        continue;
+      }
+      RegistryP.WatchSchemaResponse response = changes(sent, snapshot);
+      // the call may have been cancelled while the changes were computed
+      if (cancelled || observer.isCancelled()) {
+        return;
+      }
+      if (sent == null
+          || response.getFileDescriptorProtoCount() > 0
+          || response.getRemovedFileNameCount() > 0) {
+        observer.onNext(response);
+      }
+      sent = snapshot;
+    }
+  }
+
+  private RegistryP.WatchSchemaResponse changes(RegistrySnapshot from, RegistrySnapshot to) {
+    RegistryP.WatchSchemaResponse.Builder response =
+        RegistryP.WatchSchemaResponse.newBuilder().setRegistryVersion(to.getVersion());
+    ProtoDomain domain = to.getDomain();
+    for (Descriptors.FileDescriptor fd : domain.getFileDescriptorsByPackagePrefix(packagePrefix)) {
+      Descriptors.FileDescriptor previous =
+          from == null ? null : from.getDomain().getFileDescriptorByFileName(fd.getName());
+      if (previous == fd) {
+        continue;
+      }
+      if (previous == null || !from.getFileBytes(previous).equals(to.getFileBytes(fd))) {
+        response.addFileDescriptorProto(to.getFileBytes(fd));
+      }
+    }
+    if (from != null) {
+      for (Descriptors.FileDescriptor fd :
+          from.getDomain().getFileDescriptorsByPackagePrefix(packagePrefix)) {
+        Descriptors.FileDescriptor current = domain.getFileDescriptorByFileName(fd.getName());
+        if (current == null || !current.getPackage().startsWith(packagePrefix)) {
+          response.addRemovedFileName(fd.getName());
+        }
+      }
+    }
+    return response.build();
+  }
+}
@@ -0,0 +1,108 @@
+package io.anemos.metastore.provider;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import io.anemos.metastore.putils.FileDescriptorSets;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * History of a registry stored as content addressed chunks. Every file is a chunk keyed by the
+ * SHA-256 of its content, stored once whatever the number of versions containing it. A version is
+ * a manifest listing the digests of its files, so the history grows with the changes instead of
+ * with versions times the registry size.
+ */
+abstract class ContentAddressedHistory {
+  // Files and digests of the last version written, files that didn't change are not hashed again.
+  private Map<String, ByteString> lastFiles = new HashMap<>();
+  private Map<String, HashCode> lastDigests = new HashMap<>();
+
+  synchronized void write(long version, ByteString payload) throws IOException {
+    Map<String, ByteString> files = FileDescriptorSets.split(payload);
+    Map<String, HashCode> digests = new HashMap<>();
+    List<HashCode> manifest = new ArrayList<>(files.size());
+    for (Map.Entry<String, ByteString> file : files.entrySet()) {
+      HashCode digest;
+      if (file.getValue().equals(lastFiles.get(file.getKey()))) {
+        digest = lastDigests.get(file.getKey());
+      } else {
+        digest = Hashing.sha256().hashBytes(file.getValue().asReadOnlyByteBuffer());
+        if (!hasChunk(digest)) {
+          writeChunk(digest, file.getValue());
+        }
+      }
+      digests.put(file.getKey(), digest);
+      manifest.add(digest);
+    }
+    writeManifest(version, manifest);
+    lastFiles = files;
+    lastDigests = digests;
+  }
+
+  /** The FileDescriptorSet of the version, null if the version is not in the history. */
+  ByteString read(long version) throws IOException {
+    List<HashCode> manifest = readManifest(version);
+    if (manifest == null) {
+      return null;
+    }
+    List<ByteString> files = new ArrayList<>(manifest.size());
+    for (HashCode digest : manifest) {
+      files.add(readChunk(digest));
+    }
+    return FileDescriptorSets.join(files);
+  }
+
+  abstract long getLatestVersion();
+
+  abstract boolean hasChunk(HashCode digest) throws IOException;
+
+  abstract void writeChunk(HashCode digest, ByteString content) throws IOException;
+
+  abstract ByteString readChunk(HashCode digest) throws IOException;
+
+  abstract void writeManifest(long version, List<HashCode> manifest) throws IOException;
+
+  abstract List<HashCode> readManifest(long version) throws IOException;
+
+  /** Keeps the history on heap, the chunks are the file bytes of the registry itself. */
+  static class InMemory extends ContentAddressedHistory {
+    private final Map<HashCode, ByteString> chunks = new HashMap<>();
+    private final Map<Long, List<HashCode>> manifests = new HashMap<>();
+    private long latestVersion;
+
+    @Override
+    synchronized long getLatestVersion() {
+      return latestVersion;
+    }
+
+    @Override
+    synchronized boolean hasChunk(HashCode digest) {
+      return chunks.containsKey(digest);
+    }
+
+    @Override
+    synchronized void writeChunk(HashCode digest, ByteString content) {
+      chunks.put(digest, content);
+    }
+
+    @Override
+    synchronized ByteString readChunk(HashCode digest) {
+      return chunks.get(digest);
+    }
+
+    @Override
+    synchronized void writeManifest(long version, List<HashCode> manifest) {
+      manifests.put(version, manifest);
+      latestVersion = Math.max(latestVersion, version);
+    }
+
+    @Override
+    synchronized List<HashCode> readManifest(long version) {
+      return manifests.get(version);
+    }
+  }
+}
@@ -2,6 +2,7 @@ package io.anemos.metastore.provider;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Descriptors;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -9,6 +10,7 @@ public class InMemoryStorage implements StorageProvider, BindProvider {
 
   private ByteString storage;
   private BindDatabase bindDatabase;
+  private ContentAddressedHistory history;
 
   @Override
   public void initForBind(RegistryInfo registryInfo, Map<String, String> config, boolean readOnly) {
@@ -18,6 +20,9 @@ public class InMemoryStorage implements StorageProvider, BindProvider {
   @Override
   public void initForStorage(RegistryInfo registryInfo, Map<String, String> config) {
     this.storage = null;
+    if (Boolean.parseBoolean(config.get("history"))) {
+      history = new ContentAddressedHistory.InMemory();
+    }
   }
 
   @Override
@@ -30,6 +35,40 @@ public class InMemoryStorage implements StorageProvider, BindProvider {
     storage = payload;
   }
 
+  @Override
+  public boolean isVersioned() {
+    return history != null;
+  }
+
+  @Override
+  public void write(long version, ByteString payload) {
+    write(payload);
+    if (history != null) {
+      try {
+        history.write(version, payload);
+      } catch (IOException e) {
+        throw new RuntimeException("failed to write version " + version, e);
+      }
+    }
+  }
+
+  @Override
+  public ByteString read(long version) {
+    if (history == null) {
+      return null;
+    }
+    try {
+      return history.read(version);
+    } catch (IOException e) {
+      throw new RuntimeException("failed to read version " + version, e);
+    }
+  }
+
+  @Override
+  public long getLatestVersion() {
+    return history == null ? 0 : history.getLatestVersion();
+  }
+
   @Override
   public void createResourceBinding(String resourceUrn, Descriptors.Descriptor descriptor) {
     bindDatabase.bindMessage(resourceUrn, descriptor.getFullName());
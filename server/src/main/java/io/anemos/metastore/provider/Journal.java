@@ -0,0 +1,181 @@
+package io.anemos.metastore.provider;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of registry deltas. Every record holds the files changed by a commit and the
+ * names of the files it removed, framed by its length and CRC32. A record torn by a crash fails its
+ * CRC, it and anything after it are dropped when the journal is opened.
+ *
+ * <p>Appends and syncs are separate so that syncs are grouped: a writer appends its record, then
+ * waits for the sync of its position. The first writer to sync forces everything appended so far,
+ * the writers behind it find their records synced already.
+ */
+class Journal implements Closeable {
+  private static final int HEADER_SIZE = 8;
+
+  private final FileChannel channel;
+  private final Object syncLock = new Object();
+  private volatile long written;
+  private long synced;
+
+  /**
+   * Opens the journal, creating it if needed.
+   *
+   * @param replay called with every valid record of the journal, oldest first
+   */
+  Journal(Path path, Consumer<Record> replay) throws IOException {
+    channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long valid = replay(replay);
+    if (valid < channel.size()) {
+      channel.truncate(valid);
+      channel.force(false);
+    }
+    channel.position(valid);
+    written = valid;
+    synced = valid;
+  }
+
+  long size() {
+    return written;
+  }
+
+  /** Appends a record, returns the position to sync to make it durable. */
+  synchronized long append(Map<String, ByteString> changed, Collection<String> removed)
+      throws IOException {
+    ByteString.Output payload = ByteString.newOutput();
+    CodedOutputStream output = CodedOutputStream.newInstance(payload);
+    output.writeUInt32NoTag(changed.size());
+    for (Map.Entry<String, ByteString> entry : changed.entrySet()) {
+      output.writeStringNoTag(entry.getKey());
+      output.writeBytesNoTag(entry.getValue());
+    }
+    output.writeUInt32NoTag(removed.size());
+    for (String fileName : removed) {
+      output.writeStringNoTag(fileName);
+    }
+    output.flush();
+    ByteString bytes = payload.toByteString();
+
+    CRC32 crc = new CRC32();
+    crc.update(bytes.asReadOnlyByteBuffer());
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(bytes.size());
+    header.putInt((int) crc.getValue());
+    header.flip();
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+    for (ByteBuffer buffer : bytes.asReadOnlyByteBufferList()) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+    written = channel.position();
+    return written;
+  }
+
+  /** Makes everything up to the position durable, together with whatever was appended since. */
+  void sync(long position) throws IOException {
+    synchronized (syncLock) {
+      if (synced >= position) {
+        return;
+      }
+      long target = written;
+      channel.force(false);
+      synced = target;
+    }
+  }
+
+  private long replay(Consumer<Record> replay) throws IOException {
+    long position = 0;
+    long size = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (position + HEADER_SIZE <= size) {
+      header.clear();
+      readFully(header, position);
+      header.flip();
+      int length = header.getInt();
+      int checksum = header.getInt();
+      if (length < 0 || position + HEADER_SIZE + length > size) {
+        break;
+      }
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      readFully(payload, position + HEADER_SIZE);
+      payload.flip();
+      CRC32 crc = new CRC32();
+      crc.update(payload.duplicate());
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      replay.accept(Record.parse(ByteString.copyFrom(payload)));
+      position += HEADER_SIZE + length;
+    }
+    return position;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of journal");
+      }
+      position += read;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /** Files changed and removed by a commit. */
+  static class Record {
+    private final Map<String, ByteString> changed;
+    private final List<String> removed;
+
+    private Record(Map<String, ByteString> changed, List<String> removed) {
+      this.changed = changed;
+      this.removed = removed;
+    }
+
+    private static Record parse(ByteString payload) throws IOException {
+      CodedInputStream input = payload.newCodedInput();
+      input.enableAliasing(true);
+      Map<String, ByteString> changed = new LinkedHashMap<>();
+      int changedCount = input.readUInt32();
+      for (int i = 0; i < changedCount; i++) {
+        changed.put(input.readString(), input.readBytes());
+      }
+      List<String> removed = new ArrayList<>();
+      int removedCount = input.readUInt32();
+      for (int i = 0; i < removedCount; i++) {
+        removed.add(input.readString());
+      }
+      return new Record(changed, removed);
+    }
+
+    /** Applies the record to the files of the registry. */
+    void apply(Map<String, ByteString> files) {
+      removed.forEach(files::remove);
+      files.putAll(changed);
+    }
+  }
+}
@@ -1,7 +1,11 @@
 package io.anemos.metastore.provider;
 
+import com.google.common.hash.HashCode;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.UnsafeByteOperations;
+import io.anemos.metastore.putils.FileDescriptorSets;
+import io.anemos.metastore.putils.ProtoDomain;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -9,25 +13,54 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import java.util.stream.Collectors;
 
 public class LocalFileStorage implements StorageProvider, BindProvider {
+  private static final long DEFAULT_COMPACTION_SIZE = 4 * 1024 * 1024;
+  private static final int DIGEST_SIZE = 32;
 
   private String path;
   private BindDatabase bindDatabase;
   private String registyName;
+  private boolean mmap;
+  private boolean journaled;
+  private boolean snapshot;
+  private long compactionSize;
+
+  // Journal mode: the open journal, the files of the registry and the size of the blob the journal
+  // applies to.
+  private Journal journal;
+  private Map<String, ByteString> files;
+  private long blobSize;
+  private ContentAddressedHistory history;
 
   private void init(RegistryInfo registryInfo, Map<String, String> config) {
     this.registyName = registryInfo.getName();
     this.path = config.get("path");
+    this.mmap = Boolean.parseBoolean(config.get("mmap"));
+    this.journaled = Boolean.parseBoolean(config.get("journal"));
+    this.snapshot = Boolean.parseBoolean(config.get("snapshot"));
+    this.compactionSize =
+        Long.parseLong(
+            config.getOrDefault(
+                "journal_compaction_size", String.valueOf(DEFAULT_COMPACTION_SIZE)));
     if (path == null) {
       throw new RuntimeException("path variable not set");
     }
+    if (Boolean.parseBoolean(config.get("history"))) {
+      history = new FileHistory(new File(path + "/" + registyName + ".history"));
+    }
     if (!new File(path).isDirectory()) {
       try {
         Files.createDirectories(new File(path).toPath(), new FileAttribute[] {});
@@ -48,26 +81,273 @@ public class LocalFileStorage implements StorageProvider, BindProvider {
     init(registryInfo, config);
   }
 
+  /**
+   * Reads the registry. With the mmap option the blob is mapped instead of copied on heap, and the
+   * registry is parsed directly from the mapped region.
+   *
+   * <p>In journal mode the journal is replayed on top of the blob. A journal left behind by journal
+   * mode is folded into the blob when journal mode is off.
+   */
   @Override
-  public ByteString read() {
-    String filePath = path + "/" + registyName + ".pb";
+  public synchronized ByteString read() {
     try {
-      if (!new File(filePath).exists()) {
-        return null;
+      if (!journaled && !journalFile().exists()) {
+        return readBlob();
+      }
+      ByteString registry = openJournal();
+      if (!journaled) {
+        if (registry != null) {
+          replace(blobFile(), registry);
+        }
+        closeJournal();
+        Files.delete(journalFile().toPath());
       }
-      return ByteString.copyFrom(IOUtils.toByteArray(new FileInputStream(filePath)));
+      return registry;
     } catch (IOException e) {
-      throw new RuntimeException("failed to read " + filePath, e);
+      throw new RuntimeException("failed to read " + blobFile(), e);
     }
   }
 
+  /**
+   * Writes the registry. The blob is replaced atomically.
+   *
+   * <p>In journal mode only the files that changed are appended to the journal, syncs of
+   * concurrent writes are grouped. Once the journal outgrows the blob, or the compaction size, it's
+   * compacted into a new blob.
+   */
   @Override
   public void write(ByteString payload) {
-    String filePath = path + "/" + registyName + ".pb";
+    if (!journaled) {
+      replace(blobFile(), payload);
+      return;
+    }
+    try {
+      long position;
+      synchronized (this) {
+        if (files == null) {
+          openJournal();
+        }
+        Map<String, ByteString> next = FileDescriptorSets.split(payload);
+        Map<String, ByteString> changed = new LinkedHashMap<>();
+        next.forEach(
+            (fileName, bytes) -> {
+              ByteString current = files.get(fileName);
+              if (current != bytes && !bytes.equals(current)) {
+                changed.put(fileName, bytes);
+              }
+            });
+        List<String> removed =
+            files.keySet().stream()
+                .filter(fileName -> !next.containsKey(fileName))
+                .collect(Collectors.toList());
+        if (changed.isEmpty() && removed.isEmpty()) {
+          return;
+        }
+        position = journal.append(changed, removed);
+        files = next;
+      }
+      journal.sync(position);
+      synchronized (this) {
+        if (journal.size() > Math.max(blobSize, compactionSize)) {
+          compact();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("failed write to " + journalFile(), e);
+    }
+  }
+
+  @Override
+  public boolean isVersioned() {
+    return history != null;
+  }
+
+  @Override
+  public void write(long version, ByteString payload) {
+    write(payload);
+    if (history != null) {
+      try {
+        history.write(version, payload);
+      } catch (IOException e) {
+        throw new RuntimeException("failed to write version " + version + " of " + registyName, e);
+      }
+    }
+  }
+
+  @Override
+  public ByteString read(long version) {
+    if (history == null) {
+      return null;
+    }
+    try {
+      return history.read(version);
+    } catch (IOException e) {
+      throw new RuntimeException("failed to read version " + version + " of " + registyName, e);
+    }
+  }
+
+  @Override
+  public long getLatestVersion() {
+    return history == null ? 0 : history.getLatestVersion();
+  }
+
+  private ByteString readBlob() throws IOException {
+    File file = blobFile();
+    if (!file.exists()) {
+      return null;
+    }
+    if (mmap) {
+      return map(file);
+    }
+    return UnsafeByteOperations.unsafeWrap(Files.readAllBytes(file.toPath()));
+  }
+
+  /** Loads the blob and replays the journal on top, returns the registry or null if empty. */
+  private ByteString openJournal() throws IOException {
+    closeJournal();
+    ByteString blob = readBlob();
+    blobSize = blob == null ? 0 : blob.size();
+    Map<String, ByteString> registry =
+        blob == null ? new LinkedHashMap<>() : FileDescriptorSets.split(blob);
+    boolean[] replayed = {false};
+    boolean created = !journalFile().exists();
+    journal =
+        new Journal(
+            journalFile().toPath(),
+            record -> {
+              record.apply(registry);
+              replayed[0] = true;
+            });
+    if (created) {
+      syncDirectory(journalFile());
+    }
+    files = registry;
+    if (blob == null && !replayed[0]) {
+      return null;
+    }
+    return FileDescriptorSets.join(registry.values());
+  }
+
+  /**
+   * Writes the registry as the new blob, then starts an empty journal. Replaying the old journal
+   * on the new blob yields the new blob, so a crash in between loses nothing.
+   */
+  private void compact() throws IOException {
+    ByteString registry = FileDescriptorSets.join(files.values());
+    replace(blobFile(), registry);
+    blobSize = registry.size();
+    closeJournal();
+    replace(journalFile(), ByteString.EMPTY);
+    journal = new Journal(journalFile().toPath(), record -> {});
+  }
+
+  private void closeJournal() throws IOException {
+    if (journal != null) {
+      journal.close();
+      journal = null;
+    }
+  }
+
+  private File blobFile() {
+    return new File(path + "/" + registyName + ".pb");
+  }
+
+  private File journalFile() {
+    return new File(path + "/" + registyName + ".journal");
+  }
+
+  /**
+   * Only with the snapshot option, the snapshot is written on every write next to the blob. It
+   * pays off for large registries that restart often.
+   */
+  @Override
+  public boolean isSnapshotSupported() {
+    return snapshot;
+  }
+
+  /**
+   * The snapshot is only returned when it holds the registry that is stored: its digest has to
+   * match the digest of the files of the blob and the journal. A crash between a write and the
+   * snapshot write leaves a stale snapshot, whatever the modification times of the files.
+   */
+  @Override
+  public synchronized ByteString readSnapshot() {
+    File file = new File(path + "/" + registyName + ".snapshot");
+    File blob = blobFile();
+    File journal = journalFile();
+    if (!file.exists() || (!blob.exists() && !journal.exists())) {
+      return null;
+    }
+    // a journal left behind by journal mode is folded into the blob by read() first
+    if (!journaled && journal.exists()) {
+      return null;
+    }
+    // a snapshot older than the blob or the journal misses the last writes
+    if (file.lastModified() < Math.max(blob.lastModified(), journal.lastModified())) {
+      return null;
+    }
     try {
-      FileUtils.writeByteArrayToFile(new File(filePath), payload.toByteArray());
+      ByteString snapshot = map(file);
+      HashCode digest = ProtoDomain.getSnapshotDigest(snapshot);
+      if (digest == null || !digest.equals(FileDescriptorSets.digest(storedFiles()))) {
+        return null;
+      }
+      return snapshot;
     } catch (IOException e) {
-      throw new RuntimeException("failed write to " + filePath, e);
+      throw new RuntimeException("failed to read " + file, e);
+    }
+  }
+
+  /** The files of the registry as stored, the blob with the journal replayed in journal mode. */
+  private Map<String, ByteString> storedFiles() throws IOException {
+    if (journaled) {
+      openJournal();
+      return files;
+    }
+    ByteString blob = readBlob();
+    return blob == null ? new LinkedHashMap<>() : FileDescriptorSets.split(blob);
+  }
+
+  @Override
+  public void writeSnapshot(ByteString snapshot) {
+    replace(new File(path + "/" + registyName + ".snapshot"), snapshot);
+  }
+
+  private static ByteString map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return UnsafeByteOperations.unsafeWrap(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Writes to a temporary file and moves it in place. A file that is still mapped keeps its
+   * content, as it's never written to, and readers never see a partial file. The directory is
+   * synced after the move, so the new file survives a power failure.
+   */
+  private static void replace(File file, ByteString payload) {
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      try (FileOutputStream out = new FileOutputStream(temp)) {
+        payload.writeTo(out);
+        out.getFD().sync();
+      }
+      Files.move(
+          temp.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      syncDirectory(file);
+    } catch (IOException e) {
+      throw new RuntimeException("failed write to " + file, e);
+    }
+  }
+
+  /** Makes the entry of the file in its directory durable, after it was created or renamed. */
+  private static void syncDirectory(File file) throws IOException {
+    Path directory = file.getAbsoluteFile().getParentFile().toPath();
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
     }
   }
 
@@ -141,4 +421,83 @@ public class LocalFileStorage implements StorageProvider, BindProvider {
       }
     }
   }
+
+  /**
+   * History in a directory: chunks are files named after their digest, fanned out over
+   * subdirectories by the first byte of the digest, manifests are the concatenated digests.
+   */
+  private class FileHistory extends ContentAddressedHistory {
+    private final File chunks;
+    private final File versions;
+    private long latestVersion;
+
+    FileHistory(File root) {
+      chunks = new File(root, "chunks");
+      versions = new File(root, "versions");
+      versions.mkdirs();
+      String[] written = versions.list();
+      if (written != null) {
+        for (String version : written) {
+          if (version.matches("[0-9]+")) {
+            latestVersion = Math.max(latestVersion, Long.parseLong(version));
+          }
+        }
+      }
+    }
+
+    private File chunk(HashCode digest) {
+      String name = digest.toString();
+      return new File(new File(chunks, name.substring(0, 2)), name.substring(2));
+    }
+
+    @Override
+    synchronized long getLatestVersion() {
+      return latestVersion;
+    }
+
+    @Override
+    boolean hasChunk(HashCode digest) {
+      return chunk(digest).exists();
+    }
+
+    @Override
+    void writeChunk(HashCode digest, ByteString content) {
+      File file = chunk(digest);
+      file.getParentFile().mkdirs();
+      replace(file, content);
+    }
+
+    @Override
+    ByteString readChunk(HashCode digest) throws IOException {
+      File file = chunk(digest);
+      if (mmap) {
+        return map(file);
+      }
+      return UnsafeByteOperations.unsafeWrap(Files.readAllBytes(file.toPath()));
+    }
+
+    @Override
+    synchronized void writeManifest(long version, List<HashCode> manifest) {
+      byte[] bytes = new byte[manifest.size() * DIGEST_SIZE];
+      for (int i = 0; i < manifest.size(); i++) {
+        manifest.get(i).writeBytesTo(bytes, i * DIGEST_SIZE, DIGEST_SIZE);
+      }
+      replace(new File(versions, String.valueOf(version)), UnsafeByteOperations.unsafeWrap(bytes));
+      latestVersion = Math.max(latestVersion, version);
+    }
+
+    @Override
+    List<HashCode> readManifest(long version) throws IOException {
+      File file = new File(versions, String.valueOf(version));
+      if (!file.exists()) {
+        return null;
+      }
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      List<HashCode> manifest = new ArrayList<>(bytes.length / DIGEST_SIZE);
+      for (int i = 0; i + DIGEST_SIZE <= bytes.length; i += DIGEST_SIZE) {
+        manifest.add(HashCode.fromBytes(Arrays.copyOfRange(bytes, i, i + DIGEST_SIZE)));
+      }
+      return manifest;
+    }
+  }
 }
@@ -3,12 +3,17 @@ package io.anemos.metastore.provider;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import io.anemos.metastore.putils.ProtoDomain;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.CRC32;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -63,6 +68,130 @@ public class StorageProviderTest {
     provider.initForStorage(new DummyRegistryInfo(), config);
     readNewTest(provider);
     writeReadTest(provider);
+    Assert.assertFalse(provider.isSnapshotSupported());
+  }
+
+  @Test
+  public void localFileProviderSnapshotTest() throws Exception {
+    File tempFolder = localTempFolder.newFolder("metastore");
+    Map<String, String> config = new HashMap<>();
+    config.put("path", tempFolder.getPath());
+    config.put("snapshot", "true");
+
+    StorageProvider provider = new LocalFileStorage();
+    provider.initForStorage(new DummyRegistryInfo(), config);
+    readNewTest(provider);
+    writeReadTest(provider);
+    snapshotTest(provider);
+
+    // the process died after writing the blob, before writing the snapshot
+    provider.write(baseAddMessageOption().toByteString());
+    File blob = new File(tempFolder, new DummyRegistryInfo().getName() + ".pb");
+    File snapshot = new File(tempFolder, new DummyRegistryInfo().getName() + ".snapshot");
+    Assert.assertTrue(snapshot.setLastModified(blob.lastModified()));
+    Assert.assertNull(provider.readSnapshot());
+
+    provider.writeSnapshot(baseAddMessageOption().toSnapshot());
+    Assert.assertEquals(
+        baseAddMessageOption(), ProtoDomain.buildFromSnapshot(provider.readSnapshot()));
+  }
+
+  @Test
+  public void localFileProviderMmapTest() throws Exception {
+    File tempFolder = localTempFolder.newFolder("metastore");
+    Map<String, String> config = new HashMap<>();
+    config.put("path", tempFolder.getPath());
+    config.put("mmap", "true");
+
+    StorageProvider provider = new LocalFileStorage();
+    provider.initForStorage(new DummyRegistryInfo(), config);
+    readNewTest(provider);
+    writeReadTest(provider);
+    // the mapped blob keeps its content when the file is replaced
+    ByteString mapped = provider.read();
+    provider.write(baseAddMessageOption().toByteString());
+    Assert.assertEquals(baseKnownOption(), ProtoDomain.buildFrom(mapped));
+    Assert.assertEquals(baseAddMessageOption(), ProtoDomain.buildFrom(provider.read()));
+  }
+
+  @Test
+  public void inMemoryProviderHistoryTest() throws Exception {
+    Map<String, String> config = new HashMap<>();
+    config.put("history", "true");
+
+    StorageProvider provider = new InMemoryStorage();
+    provider.initForStorage(new DummyRegistryInfo(), config);
+    historyTest(provider);
+  }
+
+  @Test
+  public void localFileProviderHistoryTest() throws Exception {
+    File tempFolder = localTempFolder.newFolder("metastore");
+    Map<String, String> config = new HashMap<>();
+    config.put("path", tempFolder.getPath());
+    config.put("history", "true");
+
+    StorageProvider provider = new LocalFileStorage();
+    provider.initForStorage(new DummyRegistryInfo(), config);
+    historyTest(provider);
+
+    StorageProvider reopened = new LocalFileStorage();
+    reopened.initForStorage(new DummyRegistryInfo(), config);
+    Assert.assertEquals(3, reopened.getLatestVersion());
+    Assert.assertEquals(baseKnownOption(), ProtoDomain.buildFrom(reopened.read(1)));
+  }
+
+  @Test
+  public void localFileProviderJournalTest() throws Exception {
+    File tempFolder = localTempFolder.newFolder("metastore");
+    Map<String, String> config = new HashMap<>();
+    config.put("path", tempFolder.getPath());
+    config.put("journal", "true");
+    config.put("journal_compaction_size", "0");
+
+    StorageProvider provider = new LocalFileStorage();
+    provider.initForStorage(new DummyRegistryInfo(), config);
+    readNewTest(provider);
+    writeReadTest(provider);
+    provider.write(baseAddMessageOption().toByteString());
+
+    // a torn record at the end of the journal is dropped
+    File journal = new File(tempFolder, new DummyRegistryInfo().getName() + ".journal");
+    try (FileOutputStream out = new FileOutputStream(journal, true)) {
+      out.write(new byte[] {0, 0, 1, 0, 42});
+    }
+    StorageProvider reopened = new LocalFileStorage();
+    reopened.initForStorage(new DummyRegistryInfo(), config);
+    Assert.assertEquals(baseAddMessageOption(), ProtoDomain.buildFrom(reopened.read()));
+
+    // so is a complete record that fails its CRC, applied it would remove a file
+    String fileName = baseAddMessageOption().toFileDescriptorSet().getFile(0).getName();
+    ByteString.Output payload = ByteString.newOutput();
+    CodedOutputStream output = CodedOutputStream.newInstance(payload);
+    output.writeUInt32NoTag(0);
+    output.writeUInt32NoTag(1);
+    output.writeStringNoTag(fileName);
+    output.flush();
+    byte[] bytes = payload.toByteString().toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    ByteBuffer record = ByteBuffer.allocate(8 + bytes.length);
+    record.putInt(bytes.length);
+    record.putInt((int) crc.getValue() ^ 1);
+    record.put(bytes);
+    try (FileOutputStream out = new FileOutputStream(journal, true)) {
+      out.write(record.array());
+    }
+    StorageProvider corrupted = new LocalFileStorage();
+    corrupted.initForStorage(new DummyRegistryInfo(), config);
+    Assert.assertEquals(baseAddMessageOption(), ProtoDomain.buildFrom(corrupted.read()));
+    corrupted.write(baseKnownOption().toByteString());
+
+    config.remove("journal");
+    StorageProvider plain = new LocalFileStorage();
+    plain.initForStorage(new DummyRegistryInfo(), config);
+    Assert.assertEquals(baseKnownOption(), ProtoDomain.buildFrom(plain.read()));
+    Assert.assertFalse(journal.exists());
   }
 
   @Ignore
@@ -91,6 +220,30 @@ public class StorageProviderTest {
     Assert.assertEquals(baseKnownOption().toFileDescriptorSet(), PContainer.toFileDescriptorSet());
   }
 
+  private void snapshotTest(StorageProvider provider) throws Exception {
+    Assert.assertTrue(provider.isSnapshotSupported());
+    Assert.assertNull(provider.readSnapshot());
+    ProtoDomain domain = baseKnownOption();
+    provider.writeSnapshot(domain.toSnapshot());
+    ProtoDomain restored = ProtoDomain.buildFromSnapshot(provider.readSnapshot());
+    Assert.assertEquals(domain, restored);
+    Assert.assertEquals(domain.toFileDescriptorSet(), restored.toFileDescriptorSet());
+  }
+
+  private void historyTest(StorageProvider provider) throws Exception {
+    Assert.assertTrue(provider.isVersioned());
+    Assert.assertEquals(0, provider.getLatestVersion());
+    provider.write(1, baseKnownOption().toByteString());
+    provider.write(2, baseAddMessageOption().toByteString());
+    provider.write(3, baseKnownOption().toByteString());
+
+    Assert.assertEquals(3, provider.getLatestVersion());
+    Assert.assertEquals(baseKnownOption(), ProtoDomain.buildFrom(provider.read()));
+    Assert.assertEquals(baseKnownOption(), ProtoDomain.buildFrom(provider.read(1)));
+    Assert.assertEquals(baseAddMessageOption(), ProtoDomain.buildFrom(provider.read(2)));
+    Assert.assertNull(provider.read(4));
+  }
+
   private void clearGcs(String bucket, String path) {
     Storage storage = StorageOptions.getDefaultInstance().getService();
     try {
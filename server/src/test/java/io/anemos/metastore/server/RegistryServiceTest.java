@@ -0,0 +1,308 @@
+package io.anemos.metastore.server;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
+import io.anemos.metastore.MetaStore;
+import io.anemos.metastore.RegistryService;
+import io.anemos.metastore.config.MetaStoreConfig;
+import io.anemos.metastore.config.ProviderConfig;
+import io.anemos.metastore.config.RegistryConfig;
+import io.anemos.metastore.core.registry.AbstractRegistry;
+import io.anemos.metastore.v1alpha1.RegistryGrpc;
+import io.anemos.metastore.v1alpha1.RegistryP;
+import io.grpc.Context;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.testing.GrpcCleanupRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RegistryServiceTest {
+
+  @Rule public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+  private static ByteString file(String fileName, String packageName, String messageName) {
+    return DescriptorProtos.FileDescriptorProto.newBuilder()
+        .setName(fileName)
+        .setPackage(packageName)
+        .setSyntax("proto3")
+        .addMessageType(DescriptorProtos.DescriptorProto.newBuilder().setName(messageName))
+        .build()
+        .toByteString();
+  }
+
+  private static List<String> fileNames(RegistryP.GetSchemaResponse response) throws Exception {
+    List<String> fileNames = new ArrayList<>();
+    for (ByteString bytes : response.getFileDescriptorProtoList()) {
+      fileNames.add(DescriptorProtos.FileDescriptorProto.parseFrom(bytes).getName());
+    }
+    Collections.sort(fileNames);
+    return fileNames;
+  }
+
+  private static DescriptorProtos.FileDescriptorProto onlyFile(
+      RegistryP.GetSchemaResponse response) throws Exception {
+    Assert.assertEquals(1, response.getFileDescriptorProtoCount());
+    return DescriptorProtos.FileDescriptorProto.parseFrom(response.getFileDescriptorProto(0));
+  }
+
+  private MetaStore metaStore(boolean history) {
+    MetaStoreConfig config = new MetaStoreConfig();
+    config.storage = new ProviderConfig();
+    config.storage.providerClass = "io.anemos.metastore.provider.InMemoryStorage";
+    config.storage.parameters =
+        new ProviderConfig.Parameters[] {
+          new ProviderConfig.Parameters("history", String.valueOf(history))
+        };
+    config.registries = new RegistryConfig[] {new RegistryConfig("default")};
+    return new MetaStore(config);
+  }
+
+  private RegistryGrpc.RegistryBlockingStub stub(MetaStore metaStore) throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    grpcCleanup.register(
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(new RegistryService(metaStore))
+            .build()
+            .start());
+    return RegistryGrpc.newBlockingStub(
+        grpcCleanup.register(InProcessChannelBuilder.forName(serverName).directExecutor().build()));
+  }
+
+  private static long submit(
+      RegistryGrpc.RegistryBlockingStub stub,
+      RegistryP.SubmitSchemaRequest.Builder request,
+      ByteString... files) {
+    return stub.submitSchema(
+            request
+                .setValidationProfile("allow:all")
+                .addAllFileDescriptorProto(Arrays.asList(files))
+                .build())
+        .getVersion();
+  }
+
+  /**
+   * Version 1 is empty, at the since version package a has a.proto and moved.proto. Then a.proto
+   * changes, new.proto is added, moved.proto moves to package b and b.proto is removed.
+   */
+  private void deltaTest(RegistryGrpc.RegistryBlockingStub stub) throws Exception {
+    long since =
+        submit(
+            stub,
+            RegistryP.SubmitSchemaRequest.newBuilder(),
+            file("a/a.proto", "a", "A"),
+            file("a/moved.proto", "a", "Moved"),
+            file("b/b.proto", "b", "B"));
+    submit(
+        stub,
+        RegistryP.SubmitSchemaRequest.newBuilder(),
+        file("a/a.proto", "a", "Changed"),
+        file("a/new.proto", "a", "New"));
+    long latest =
+        submit(
+            stub,
+            RegistryP.SubmitSchemaRequest.newBuilder().setPackageName("b"),
+            file("a/moved.proto", "b", "Moved"));
+
+    RegistryP.GetSchemaResponse prefix =
+        stub.getSchema(
+            RegistryP.GetSchemaRequest.newBuilder()
+                .setPackagePrefix("a")
+                .setSinceVersion(since)
+                .build());
+    Assert.assertTrue(prefix.getDelta());
+    Assert.assertEquals(latest, prefix.getRegistryVersion());
+    Assert.assertEquals(Arrays.asList("a/a.proto", "a/new.proto"), fileNames(prefix));
+    // moved.proto is still in the registry but left the scope, b.proto was never in scope
+    Assert.assertEquals(Arrays.asList("a/moved.proto"), prefix.getRemovedFileNameList());
+
+    RegistryP.GetSchemaResponse all =
+        stub.getSchema(RegistryP.GetSchemaRequest.newBuilder().setSinceVersion(since).build());
+    Assert.assertTrue(all.getDelta());
+    Assert.assertEquals(Arrays.asList("a/a.proto", "a/moved.proto", "a/new.proto"), fileNames(all));
+    Assert.assertEquals(Arrays.asList("b/b.proto"), all.getRemovedFileNameList());
+
+    RegistryP.GetSchemaResponse unchanged =
+        stub.getSchema(
+            RegistryP.GetSchemaRequest.newBuilder()
+                .setPackagePrefix("a")
+                .setSinceVersion(latest)
+                .build());
+    Assert.assertTrue(unchanged.getDelta());
+    Assert.assertEquals(0, unchanged.getFileDescriptorProtoCount());
+    Assert.assertEquals(0, unchanged.getRemovedFileNameCount());
+
+    RegistryP.GetSchemaResponse unknown =
+        stub.getSchema(
+            RegistryP.GetSchemaRequest.newBuilder()
+                .setPackagePrefix("a")
+                .setSinceVersion(latest + 100)
+                .build());
+    Assert.assertFalse(unknown.getDelta());
+    Assert.assertEquals(Arrays.asList("a/a.proto", "a/new.proto"), fileNames(unknown));
+  }
+
+  @Test(timeout = 10_000)
+  public void watchSchema() throws Exception {
+    MetaStore metaStore = metaStore(false);
+    RegistryGrpc.RegistryBlockingStub stub = stub(metaStore);
+    AbstractRegistry registry = metaStore.getRegistries().get("default");
+    long initial =
+        submit(stub, RegistryP.SubmitSchemaRequest.newBuilder(), file("a/a.proto", "a", "A"));
+    int listeners = registry.getSnapshotListenerCount();
+
+    Context.CancellableContext context = Context.current().withCancellation();
+    Iterator<RegistryP.WatchSchemaResponse> responses =
+        context.call(
+            () ->
+                stub.watchSchema(
+                    RegistryP.WatchSchemaRequest.newBuilder().setPackagePrefix("a").build()));
+
+    RegistryP.WatchSchemaResponse first = responses.next();
+    Assert.assertEquals(initial, first.getRegistryVersion());
+    Assert.assertEquals(1, first.getFileDescriptorProtoCount());
+    Assert.assertEquals(listeners + 1, registry.getSnapshotListenerCount());
+
+    long next =
+        submit(
+            stub,
+            RegistryP.SubmitSchemaRequest.newBuilder(),
+            file("a/b.proto", "a", "B"),
+            file("c/c.proto", "c", "C"));
+    RegistryP.WatchSchemaResponse delta = responses.next();
+    Assert.assertEquals(next, delta.getRegistryVersion());
+    Assert.assertEquals(
+        "a/b.proto",
+        DescriptorProtos.FileDescriptorProto.parseFrom(delta.getFileDescriptorProto(0)).getName());
+    Assert.assertEquals(1, delta.getFileDescriptorProtoCount());
+    Assert.assertEquals(0, delta.getRemovedFileNameCount());
+
+    context.cancel(null);
+    while (registry.getSnapshotListenerCount() > listeners) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void getSchemaOfVersion() throws Exception {
+    // earlier versions are only served from the storage history
+    RegistryGrpc.RegistryBlockingStub stub = stub(metaStore(true));
+    long first =
+        submit(stub, RegistryP.SubmitSchemaRequest.newBuilder(), file("a/a.proto", "a", "A"));
+    RegistryP.GetSchemaRequest request =
+        RegistryP.GetSchemaRequest.newBuilder().setFileName("a/a.proto").build();
+    RegistryP.GetSchemaResponse cached = stub.getSchema(request);
+    Assert.assertEquals(first, cached.getRegistryVersion());
+
+    long second =
+        submit(stub, RegistryP.SubmitSchemaRequest.newBuilder(), file("a/a.proto", "a", "B"));
+    // the response cached for the first version is not served for the second
+    RegistryP.GetSchemaResponse latest = stub.getSchema(request);
+    Assert.assertEquals(second, latest.getRegistryVersion());
+    Assert.assertEquals(
+        DescriptorProtos.FileDescriptorProto.parseFrom(file("a/a.proto", "a", "B")),
+        onlyFile(latest));
+    Assert.assertNotEquals(cached.getEtag(), latest.getEtag());
+
+    // an earlier version is served from its own snapshot, the current one is unaffected
+    RegistryP.GetSchemaResponse earlier =
+        stub.getSchema(request.toBuilder().setVersion(first).build());
+    Assert.assertEquals(first, earlier.getRegistryVersion());
+    Assert.assertEquals(cached.getEtag(), earlier.getEtag());
+    Assert.assertEquals(
+        DescriptorProtos.FileDescriptorProto.parseFrom(file("a/a.proto", "a", "A")),
+        onlyFile(earlier));
+    Assert.assertEquals(latest, stub.getSchema(request));
+  }
+
+  @Test
+  public void ifNoneMatch() throws Exception {
+    RegistryGrpc.RegistryBlockingStub stub = stub(metaStore(false));
+    submit(stub, RegistryP.SubmitSchemaRequest.newBuilder(), file("a/a.proto", "a", "A"));
+    RegistryP.GetSchemaRequest request =
+        RegistryP.GetSchemaRequest.newBuilder().setPackagePrefix("a").build();
+    RegistryP.GetSchemaResponse response = stub.getSchema(request);
+    Assert.assertFalse(response.getNotModified());
+    Assert.assertFalse(response.getEtag().isEmpty());
+
+    RegistryP.GetSchemaRequest conditional =
+        request.toBuilder().setIfNoneMatch(response.getEtag()).build();
+    RegistryP.GetSchemaResponse notModified = stub.getSchema(conditional);
+    Assert.assertTrue(notModified.getNotModified());
+    Assert.assertEquals(response.getEtag(), notModified.getEtag());
+    Assert.assertEquals(0, notModified.getFileDescriptorProtoCount());
+
+    // a change outside of the scope doesn't change the etag, the version moves on
+    long outside =
+        submit(
+            stub,
+            RegistryP.SubmitSchemaRequest.newBuilder().setPackageName("c"),
+            file("c/c.proto", "c", "C"));
+    notModified = stub.getSchema(conditional);
+    Assert.assertTrue(notModified.getNotModified());
+    Assert.assertEquals(outside, notModified.getRegistryVersion());
+
+    long inside =
+        submit(
+            stub,
+            RegistryP.SubmitSchemaRequest.newBuilder().setPackageName("a"),
+            file("a/a.proto", "a", "Changed"));
+    RegistryP.GetSchemaResponse modified = stub.getSchema(conditional);
+    Assert.assertFalse(modified.getNotModified());
+    Assert.assertEquals(inside, modified.getRegistryVersion());
+    Assert.assertNotEquals(response.getEtag(), modified.getEtag());
+    Assert.assertEquals(Arrays.asList("a/a.proto"), fileNames(modified));
+  }
+
+  /** A scope by type is resolved on the domain of the since version. */
+  private void messageDeltaTest(RegistryGrpc.RegistryBlockingStub stub, boolean delta)
+      throws Exception {
+    long since =
+        submit(stub, RegistryP.SubmitSchemaRequest.newBuilder(), file("a/a.proto", "a", "A"));
+    submit(
+        stub,
+        RegistryP.SubmitSchemaRequest.newBuilder(),
+        file("a/a.proto", "a", "A"),
+        file("b/b.proto", "b", "B"));
+
+    RegistryP.GetSchemaResponse response =
+        stub.getSchema(
+            RegistryP.GetSchemaRequest.newBuilder()
+                .setMessageName("a.A")
+                .setSinceVersion(since)
+                .build());
+    Assert.assertEquals(delta, response.getDelta());
+    Assert.assertEquals(delta ? 0 : 1, response.getFileDescriptorProtoCount());
+  }
+
+  @Test
+  public void messageDeltaFromStorageHistory() throws Exception {
+    messageDeltaTest(stub(metaStore(true)), true);
+  }
+
+  @Test
+  public void messageDeltaWithoutHistory() throws Exception {
+    // only the files of recent versions are kept, all the files are returned
+    messageDeltaTest(stub(metaStore(false)), false);
+  }
+
+  @Test
+  public void deltaFromRecentVersions() throws Exception {
+    deltaTest(stub(metaStore(false)));
+  }
+
+  @Test
+  public void deltaFromStorageHistory() throws Exception {
+    deltaTest(stub(metaStore(true)));
+  }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -113,7 +114,8 @@ public class ShadowE2ETest {
     Assert.assertEquals(
         baseKnownOption().toFileDescriptorSet(), actualDefaultRegistry.toFileDescriptorSet());
 
-    // compile shadow repo files and compare
+    // compile shadow repo files and compare, the repo is synced in the background
+    awaitShadowSync(metaStore);
     ProtoDomain actualShadowRepo =
         ProtocUtil.createDescriptorSet(shadowrepoPath.toAbsolutePath().toString());
     Assert.assertEquals(
@@ -173,11 +175,16 @@ public class ShadowE2ETest {
         expectedResults.createProto().getMessageResultsMap(),
         actualShadowReport.getMessageResultsMap());
 
+    awaitShadowSync(metaStore);
     actualShadowRepo = ProtocUtil.createDescriptorSet(shadowrepoPath.toAbsolutePath().toString());
     Assert.assertEquals(
         shadowDefaultFieldAdded().toFileDescriptorSet(), actualShadowRepo.toFileDescriptorSet());
   }
 
+  private static void awaitShadowSync(MetaStore metaStore) throws Exception {
+    Assert.assertTrue(metaStore.getRegistries().get("shadow").awaitGitSync(10, TimeUnit.SECONDS));
+  }
+
   private RegistryGrpc.RegistryBlockingStub getSchemaRegistryStub(MetaStore metaStore)
       throws IOException {
     String serverName = InProcessServerBuilder.generateName();